@@ -0,0 +1,130 @@
+package com.jpowder;
+
+import com.jpowder.powder.Registry;
+import com.jpowder.powder.ShiftRule;
+
+import java.util.Arrays;
+
+/**
+ * The communicating-vessels pass: levels out connected bodies of fluid that local flow can't.
+ * <p>
+ * Fluids only ever flow downhill, so water standing higher in one arm of a U-bend than the
+ * other settles as it is. This pass finds every body of resting fluid (4-connected cells of the
+ * same material), and moves cells from its highest surface to the lowest empty cells bordering
+ * it, as long as those are strictly lower. Every move lowers the body, so it never oscillates.
+ * <p>
+ * Much more expensive than a tick, as it visits whole bodies including sleeping ones, so it's
+ * meant to run every few ticks. Runs on the simulation thread, never in parallel.
+ */
+final class FluidPressure {
+    // the most cells moved per body per pass, so a pass stays cheap even on a big imbalance
+    private static final int MAX_MOVES = 64;
+
+    private final PowderGrid pg;
+    private final Registry pr;
+    // index offsets of the 4 direct neighbors
+    private final int[] offsets;
+    // one bit per index, cells already part of a body (or counted as bordering one, in which case
+    // other bodies skip them until the next pass)
+    private final long[] visited;
+    // scratch lists of indices, grown as needed
+    private int[] queue = new int[256];
+    private int[] surface = new int[64];
+    private int[] openings = new int[64];
+    private final PowderGrid.DirtyRect bounds = new PowderGrid.DirtyRect();
+
+    FluidPressure(PowderGrid pg, Registry pr) {
+        this.pg = pg;
+        this.pr = pr;
+        offsets = new int[] { -pg.getStride(), pg.getStride(), -1, 1 };
+        visited = new long[(pg.get1DLength() + 63) / 64];
+    }
+
+    /**
+     * Level out every body of fluid on the updatable grid. Ticks can run without merging in
+     * between, so this looks at the occupied part of the grid as of the last merge plus whatever
+     * was written since, see {@link PowderGrid#getUpdatableBounds}.
+     */
+    void run() {
+        pg.getUpdatableBounds(bounds);
+        if (bounds.isEmpty()) {
+            return;
+        }
+
+        Arrays.fill(visited, 0);
+        for (int y = bounds.getMinY(); y <= bounds.getMaxY(); y++) {
+            int index = pg.findTrueLocation(bounds.getMinX(), y);
+            for (int x = bounds.getMinX(); x <= bounds.getMaxX(); x++, index++) {
+                short material = pg.getMaterialAt(index);
+                if (material > PowderGrid.EMPTY && !isVisited(index) && isResting(index, material)) {
+                    level(index, material);
+                }
+            }
+        }
+    }
+
+    private boolean isResting(int index, short material) {
+        return pr.getMaterial(material).shift == ShiftRule.FLUID && pg.getVelocityAt(index) == 0;
+    }
+
+    private void level(int start, short material) {
+        int stride = pg.getStride();
+        int queued = 0;
+        int surfaces = 0;
+        int open = 0;
+        queue[queued++] = start;
+        markVisited(start);
+
+        for (int head = 0; head < queued; head++) {
+            int cell = queue[head];
+            if (pg.getMaterialAt(cell - stride) == PowderGrid.EMPTY) {
+                surface = append(surface, surfaces++, cell);
+            }
+
+            for (int offset : offsets) {
+                int neighbor = cell + offset;
+                if (isVisited(neighbor)) {
+                    continue;
+                }
+
+                short neighborMaterial = pg.getMaterialAt(neighbor);
+                if (neighborMaterial == PowderGrid.EMPTY) {
+                    markVisited(neighbor);
+                    openings = append(openings, open++, neighbor);
+                } else if (neighborMaterial == material && pg.getVelocityAt(neighbor) == 0) {
+                    markVisited(neighbor);
+                    queue = append(queue, queued++, neighbor);
+                }
+            }
+        }
+
+        // indices sort row by row, so the highest surface cells come first and the lowest openings last
+        Arrays.sort(surface, 0, surfaces);
+        Arrays.sort(openings, 0, open);
+        int moves = Math.min(MAX_MOVES, Math.min(surfaces, open));
+        for (int i = 0; i < moves; i++) {
+            int from = surface[i];
+            int to = openings[open-1-i];
+            if (to / stride <= from / stride) {
+                break; // level
+            }
+            pg.movePixel(from, to);
+        }
+    }
+
+    private static int[] append(int[] list, int size, int value) {
+        if (size == list.length) {
+            list = Arrays.copyOf(list, size*2);
+        }
+        list[size] = value;
+        return list;
+    }
+
+    private boolean isVisited(int index) {
+        return (visited[index >>> 6] & 1L << index) != 0;
+    }
+
+    private void markVisited(int index) {
+        visited[index >>> 6] |= 1L << index;
+    }
+}
@@ -0,0 +1,59 @@
+package com.jpowder;
+
+/**
+ * A copy of the merged grid, published by the simulation thread for readers on other threads.
+ * <p>
+ * Snapshots are recycled by a {@link SnapshotBuffer}. A reader owns the snapshot it took until
+ * it takes the next one, and must not write to it. The arrays use the same padded layout as the
+ * {@link PowderGrid} they were copied from.
+ */
+public final class GridSnapshot {
+    final short[] material;
+    final int[] color;
+    // per chunk, the cells that changed since the last snapshot the reader is known to have taken
+    final PowderGrid.DirtyRect[] damage;
+    long tick;
+    int filled;
+    // per material id
+    int[] population;
+
+    GridSnapshot(PowderGrid pg) {
+        material = new short[pg.get1DLength()];
+        color = new int[pg.get1DLength()];
+        damage = new PowderGrid.DirtyRect[pg.getChunks().length];
+        for (int i = 0; i < damage.length; i++) {
+            damage[i] = new PowderGrid.DirtyRect();
+        }
+    }
+
+    public short[] getMaterials() { return material; }
+    public int[] getColors() { return color; }
+
+    /**
+     * Get the cells that changed since the reader's previous snapshot, one rectangle per chunk in
+     * the order of {@link PowderGrid#getChunks()}.
+     * <p>
+     * This may cover more than actually changed if the reader skipped snapshots, never less.
+     * @return the damage rectangles
+     */
+    public PowderGrid.DirtyRect[] getDamage() { return damage; }
+
+    /**
+     * Get the simulation tick this snapshot was taken at.
+     */
+    public long getTick() { return tick; }
+
+    /**
+     * Get the number of occupied cells at the time of the snapshot.
+     */
+    public int getFilledPixels() { return filled; }
+
+    /**
+     * Get the number of cells of one material at the time of the snapshot.
+     * @param material The material id
+     * @return the population of the material
+     */
+    public int getPopulation(short material) {
+        return material > PowderGrid.EMPTY && material < population.length ? population[material] : 0;
+    }
+}
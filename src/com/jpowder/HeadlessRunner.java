@@ -0,0 +1,149 @@
+package com.jpowder;
+
+import com.jpowder.powder.DefaultMaterials;
+import com.jpowder.powder.Registry;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Runs the simulation without a window, for servers, batch jobs and throughput tests.
+ * <p>
+ * Loads a world (or generates one from the seed), runs a number of ticks as fast as possible,
+ * then writes out the final world and prints tick-rate statistics. Nothing here needs a display.
+ * <p>
+ * Options: {@code --grid=WxH} (as for {@link PowderWindow}), {@code --ticks=N}, {@code --seed=N},
+ * {@code --pressure=N} (ticks between fluid levelling passes, see
+ * {@link PowderSimulation#setPressureInterval(int)}), {@code --load=FILE}, {@code --out=FILE},
+ * {@code --image=FILE.ppm} and {@code --parallel}.
+ */
+public class HeadlessRunner {
+    public static void main(String[] args) throws IOException {
+        Dimension gridSize = new Dimension(256, 256);
+        int ticks = 1000;
+        Long seed = null;
+        int pressure = 0;
+        Path load = null;
+        Path out = Paths.get("world.txt");
+        Path image = null;
+        boolean parallel = false;
+
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=')+1);
+            if (arg.startsWith("--grid=")) {
+                gridSize = PowderUtilities.parseSize(value);
+            } else if (arg.startsWith("--ticks=")) {
+                ticks = Integer.parseInt(value);
+            } else if (arg.startsWith("--seed=")) {
+                seed = Long.parseLong(value);
+            } else if (arg.startsWith("--pressure=")) {
+                pressure = Integer.parseInt(value);
+            } else if (arg.startsWith("--load=")) {
+                load = Paths.get(value);
+            } else if (arg.startsWith("--out=")) {
+                out = Paths.get(value);
+            } else if (arg.startsWith("--image=")) {
+                image = Paths.get(value);
+            } else if (arg.equals("--parallel")) {
+                parallel = true;
+            } else {
+                System.err.println("Unknown option: " + arg);
+                System.exit(2);
+            }
+        }
+
+        Registry pr = new Registry();
+        DefaultMaterials.register(pr);
+
+        PowderGrid pg = load != null ? WorldFile.load(load, pr) : new PowderGrid(gridSize.width, gridSize.height);
+        PowderSimulation sim = new PowderSimulation(pg, pr);
+        sim.parallelMode = parallel;
+        sim.setPressureInterval(pressure);
+        if (seed != null) {
+            sim.setSeed(seed);
+        }
+        if (load == null) {
+            generateWorld(sim, pg, new SimRandom(sim.getSeed()));
+        }
+        System.out.println("World: " + pg.getWidth() + "x" + pg.getHeight() + ", " + pg.getFilledPixels() + " powders, seed " + sim.getSeed());
+
+        long[] tickNanos = new long[ticks];
+        long start = System.nanoTime();
+        for (int t = 0; t < ticks; t++) {
+            long tickStart = System.nanoTime();
+            sim.updatePixels();
+            tickNanos[t] = System.nanoTime() - tickStart;
+        }
+        long total = System.nanoTime() - start;
+        pg.mergeGrid();
+
+        printStats(tickNanos, total);
+        System.out.println("Final world: " + pg.getFilledPixels() + " powders");
+
+        WorldFile.save(pg, pr, out);
+        System.out.println("Wrote " + out);
+        if (image != null) {
+            WorldFile.saveImage(pg, image);
+            System.out.println("Wrote " + image);
+        }
+    }
+
+    private static void printStats(long[] tickNanos, long total) {
+        if (tickNanos.length == 0) {
+            return;
+        }
+
+        long[] sorted = tickNanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("Ran %d ticks in %.1f ms (%.1f ticks/s)%n",
+                tickNanos.length, total / 1e6, tickNanos.length / (total / 1e9));
+        System.out.printf("Tick time: mean %.3f ms, min %.3f ms, median %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                total / 1e6 / tickNanos.length,
+                sorted[0] / 1e6,
+                sorted[sorted.length / 2] / 1e6,
+                sorted[(int) Math.min(sorted.length-1, (long) Math.ceil(sorted.length * 0.99) - 1)] / 1e6,
+                sorted[sorted.length-1] / 1e6);
+    }
+
+    /**
+     * Fill an empty grid with a random but reproducible scene: uneven rock ground, a few piles of
+     * sand, pools of water and hydrogen, and burning wood.
+     */
+    private static void generateWorld(PowderSimulation sim, PowderGrid pg, SimRandom rand) {
+        int width = pg.getWidth();
+        int height = pg.getHeight();
+
+        // rock ground, rising and falling a cell at a time
+        int ground = height - 1 - height/8;
+        for (int x = 0; x < width; x++) {
+            ground = Math.max(height/2, Math.min(height-1, ground + rand.nextInt(3) - 1));
+            for (int y = ground; y < height; y++) {
+                sim.placePowder(x, y, "rock_powder");
+            }
+        }
+
+        String[] fills = { "sand_powder", "sand_powder", "water_fluid", "water_fluid", "hydrogen_fluid", "wood_powder" };
+        int blobs = Math.max(1, width*height / 4096);
+        for (int i = 0; i < blobs; i++) {
+            String fill = fills[rand.nextInt(fills.length)];
+            int blobWidth = 4 + rand.nextInt(Math.max(1, width/8));
+            int blobHeight = 4 + rand.nextInt(Math.max(1, height/8));
+            int left = rand.nextInt(Math.max(1, width - blobWidth));
+            int top = rand.nextInt(Math.max(1, height/2 - blobHeight));
+            for (int y = top; y < Math.min(height, top + blobHeight); y++) {
+                for (int x = left; x < Math.min(width, left + blobWidth); x++) {
+                    if (!pg.isPowderAt(x, y)) {
+                        sim.placePowder(x, y, fill);
+                    }
+                }
+            }
+            if (fill.equals("wood_powder")) { // set it alight
+                sim.placePowder(left + blobWidth/2, Math.max(0, top-1), "fire_gas");
+            }
+        }
+        pg.mergeGrid();
+    }
+}
@@ -0,0 +1,168 @@
+package com.jpowder;
+
+import com.jpowder.powder.Material;
+import com.jpowder.powder.Registry;
+
+/**
+ * Spreads heat through the grid's temperature field, and changes the state of powders that get
+ * hot enough (see {@link Registry#registerThreshold}).
+ * <p>
+ * Every tick each cell moves part of the way towards the mean of its 4 direct neighbors, and a
+ * little towards {@link PowderGrid#AMBIENT_TEMPERATURE}, so heat spreads out and slowly fades. The
+ * wall border stays at ambient. Powders that give off heat then hold their cells at their
+ * {@link Material#heat}, and any powder at or above its threshold is replaced.
+ * <p>
+ * This is one streaming pass over the rows involved, whatever is burning or melting. Each row is
+ * worked out in scratch rows and copied back: the stencil reads copies of the cells above, below,
+ * left and right of the row, all at the same index, and writes its own row, which is the shape of
+ * loop the JIT vectorizes. Only rows of chunks that had a cell more than {@link #SETTLED} off
+ * ambient when last checked, and the ones next to them, are visited, so a world that has cooled
+ * down costs nothing. Checking takes a scalar scan, so it's only done every
+ * {@link #CHECK_INTERVAL} passes.
+ */
+final class HeatDiffusion {
+    // how far a cell moves towards the mean of its neighbors per tick, at most 1 to stay stable
+    private static final float SPREAD = 0.8f;
+    // how far a cell moves towards ambient per tick
+    private static final float COOLING = 0.01f;
+    // how close to ambient every cell of a row of chunks has to be for it to stop being visited
+    private static final float SETTLED = 0.5f;
+    // passes between checks for rows of chunks that have cooled down
+    private static final int CHECK_INTERVAL = 8;
+
+    private final PowderGrid pg;
+    private final Registry pr;
+    // copies of the original temperatures of the rows around the one being written
+    private float[] above;
+    private float[] current;
+    private float[] below;
+    // copies of the row being written, shifted by a cell either way
+    private final float[] left;
+    private final float[] right;
+    // the new temperatures of the row being written
+    private final float[] next;
+    // per row of chunks, whether it is visited this pass
+    private final boolean[] visit;
+    private int passes = 0;
+
+    HeatDiffusion(PowderGrid pg, Registry pr) {
+        this.pg = pg;
+        this.pr = pr;
+        above = new float[pg.getStride()];
+        current = new float[pg.getStride()];
+        below = new float[pg.getStride()];
+        left = new float[pg.getStride()];
+        right = new float[pg.getStride()];
+        next = new float[pg.getStride()];
+        visit = new boolean[pg.getChunksY()];
+    }
+
+    /**
+     * Spread heat for one tick.
+     */
+    void run() {
+        int chunksY = pg.getChunksY();
+        for (int chunkY = 0; chunkY < chunksY; chunkY++) {
+            visit[chunkY] = pg.isWarmRow(chunkY)
+                    || (chunkY > 0 && pg.isWarmRow(chunkY-1))
+                    || (chunkY < chunksY-1 && pg.isWarmRow(chunkY+1));
+        }
+
+        boolean check = ++passes % CHECK_INTERVAL == 0;
+        float[] temperature = pg.getTemperatures();
+        int stride = pg.getStride();
+        int height = pg.getHeight();
+        int loaded = -1; // the row currently held in below, if any
+        for (int chunkY = 0; chunkY < chunksY; chunkY++) {
+            if (!visit[chunkY]) {
+                continue;
+            }
+
+            // rows are only dropped when checked, and only picked up when something warms them
+            boolean warm = check ? false : pg.isWarmRow(chunkY);
+            int bottom = Math.min(height, (chunkY+1)*PowderGrid.CHUNK_SIZE) - 1;
+            for (int y = chunkY*PowderGrid.CHUNK_SIZE; y <= bottom; y++) {
+                int row = pg.findTrueLocation(-1, y);
+                // rows are only written back after the row below them has been copied, so
+                // everything copied is original
+                if (loaded == y) {
+                    float[] swap = above;
+                    above = current;
+                    current = below;
+                    below = swap;
+                } else {
+                    System.arraycopy(temperature, row - stride, above, 0, stride);
+                    System.arraycopy(temperature, row, current, 0, stride);
+                }
+                System.arraycopy(temperature, row + stride, below, 0, stride);
+                loaded = y+1;
+
+                diffuseRow();
+                settleRow(row, y);
+                warm = warm || !isSettled();
+                System.arraycopy(next, 1, temperature, row + 1, pg.getWidth());
+            }
+            pg.setWarmRow(chunkY, warm);
+        }
+    }
+
+    /**
+     * The stencil, working out the next row from the copies around it. Kept free of branches,
+     * calls and offset indices so it compiles to vector instructions.
+     */
+    private void diffuseRow() {
+        float[] above = this.above;
+        float[] current = this.current;
+        float[] below = this.below;
+        float[] left = this.left;
+        float[] right = this.right;
+        float[] next = this.next;
+        int width = pg.getWidth();
+        System.arraycopy(current, 0, left, 1, width);
+        System.arraycopy(current, 2, right, 1, width);
+        for (int x = 1; x <= width; x++) {
+            float c = current[x];
+            float mean = (above[x] + below[x] + left[x] + right[x]) * 0.25f;
+            next[x] = c + SPREAD*(mean - c) + COOLING*(PowderGrid.AMBIENT_TEMPERATURE - c);
+        }
+    }
+
+    /**
+     * Check whether every cell of the next row is within {@link #SETTLED} of ambient.
+     */
+    private boolean isSettled() {
+        float[] next = this.next;
+        int width = pg.getWidth();
+        for (int x = 1; x <= width; x++) {
+            if (Math.abs(next[x] - PowderGrid.AMBIENT_TEMPERATURE) > SETTLED) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Apply heat sources and thresholds to the powders of the next row.
+     */
+    private void settleRow(int row, int y) {
+        float[] next = this.next;
+        int width = pg.getWidth();
+        for (int x = 0; x < width; x++) {
+            short material = pg.getMaterialAt(row + x + 1);
+            if (material <= PowderGrid.EMPTY) {
+                continue;
+            }
+
+            Material powder = pr.getMaterial(material);
+            float value = Math.max(next[x + 1], powder.heat);
+            Registry.ThresholdEntry threshold = pr.getThreshold(material);
+            if (threshold != null && value >= threshold.temperature) {
+                Material out = pr.getMaterial(threshold.outMaterial);
+                pg.setPixel(x, y, out);
+                value = Math.max(value, out.heat);
+            }
+            next[x + 1] = value;
+        }
+    }
+}
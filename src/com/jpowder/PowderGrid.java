@@ -1,98 +1,601 @@
 package com.jpowder;
 
-import com.jpowder.powder.BasePowder;
+import com.jpowder.powder.Material;
 
 import java.util.Arrays;
 
+/**
+ * The simulation grid.
+ * <p>
+ * Cell state is kept in parallel primitive arrays (material id, color, life, velocity, temperature
+ * and flags) instead of one object per cell. Material ids are handed out by the
+ * {@link com.jpowder.powder.Registry}, with {@link #EMPTY} marking a cell with no powder.
+ * <p>
+ * The arrays are padded with a one-cell ring of {@link #WALL} sentinels around the grid, so
+ * every in-grid cell has 8 readable neighbors and neighbor lookups never need bounds checks.
+ * <p>
+ * The grid is split into {@link Chunk}s of {@link #CHUNK_SIZE} cells square. Every write wakes the
+ * chunk(s) around the written cell, and chunks that saw no changes during a tick fall asleep, so
+ * the simulation only has to visit the parts of the world that are actually moving.
+ * <p>
+ * Chunks also keep the reactive boundary: cells whose reaction with a neighbor didn't fire yet
+ * are kept for the next tick's reaction pass without waking them, and every write adds the cells
+ * around it, so reactions cost in proportion to the interfaces between materials.
+ * <p>
+ * The population of the merged grid, in total and per material, is kept up to date as cells are
+ * written, so it can be read every frame without sweeping the grid.
+ */
 public class PowderGrid {
+    /**
+     * Material id of an empty cell.
+     */
+    public static final short EMPTY = 0;
+    /**
+     * Material id of the immovable sentinel cells bordering the grid.
+     */
+    public static final short WALL = -1;
+
+    // neighbor directions, also the bit positions used by getNeighborMask()
+    public static final int ABOVE = 0;
+    public static final int BELOW = 1;
+    public static final int LEFT = 2;
+    public static final int RIGHT = 3;
+    public static final int ABOVE_LEFT = 4;
+    public static final int ABOVE_RIGHT = 5;
+    public static final int BELOW_LEFT = 6;
+    public static final int BELOW_RIGHT = 7;
+    /**
+     * Set on a cell once it has been moved during the current tick.
+     */
+    public static final byte FLAG_UPDATED = 1;
+    // the sideways direction a fluid is spreading in, kept with the powder as it moves
+    private static final byte FLAG_FLOW_LEFT = 2;
+    private static final byte FLAG_FLOW_RIGHT = 4;
+    /**
+     * Width and height of a chunk, in cells. At most 64, a chunk row is tracked in one long.
+     */
+    public static final int CHUNK_SIZE = 64;
+    /**
+     * The most cells a powder may fall in one tick, kept well under a chunk so a fall never
+     * reaches past the chunk directly below.
+     */
+    public static final int MAX_FALL_SPEED = CHUNK_SIZE/2 - 1;
+    /**
+     * The most cells a fluid may flow sideways in one tick. Parallel updates run chunks two apart
+     * in a row at the same time, so nothing may reach more than half a chunk sideways.
+     */
+    public static final int MAX_DISPERSION = CHUNK_SIZE/2 - 1;
+    /**
+     * Temperature of every cell of a new grid, and of the wall border always, in degrees Celsius.
+     */
+    public static final float AMBIENT_TEMPERATURE = 20;
+
     private final int width;
     private final int height;
-    private BasePowder[] pixels;
-    private final BasePowder[] updatablePixels;
+    // row length of the padded arrays
+    private final int stride;
+    // index offset of each neighbor direction
+    private final int[] neighborOffsets;
+
+    // material and color are double buffered: the simulation writes the back buffer
+    // while readers see the front one, and mergeGrid() flips them.
+    private final short[][] materialBuffers;
+    private final int[][] colorBuffers;
+    private int front;
+
+    // working (back) state, written by the simulation
+    private short[] material;
+    private int[] color;
+    private final short[] life;
+    // falling speed in cells per tick
+    private final byte[] velocity;
+    // temperature in degrees Celsius, of the cell rather than the powder in it
+    private final float[] temperature;
+    private final byte[] flags;
+
+    private final int chunksX;
+    private final int chunksY;
+    private final Chunk[] chunks;
+    // per row of chunks, whether any cell in it may be off the ambient temperature
+    private final boolean[] warmRows;
+    // whether anything was written since the last merge
+    private boolean changed;
+    // indices of the chunks the bulk edit in progress wrote to, see Chunk.edited
+    private final int[] editedChunks;
+    private int editedCount = 0;
+
+    // population of the merged grid, per material id and in total
+    private int[] population = new int[1];
+    private int filled = 0;
+    // chunk-aligned bounding box of the occupied chunks of the merged grid
+    private final DirtyRect occupiedBounds = new DirtyRect();
+    // whether the merged grid was cleared since the last merge
+    private boolean cleared = false;
 
     public PowderGrid(int width, int height) {
         this.width = width;
         this.height = height;
-        this.pixels = new BasePowder[width*height];
-        updatablePixels = new BasePowder[width*height];
+        stride = width+2;
+        neighborOffsets = new int[] { -stride, stride, -1, 1, -stride-1, -stride+1, stride-1, stride+1 };
 
+        int length = stride*(height+2);
+        materialBuffers = new short[][] { new short[length], new short[length] };
+        colorBuffers = new int[][] { new int[length], new int[length] };
+        front = 0;
+        material = materialBuffers[1];
+        color = colorBuffers[1];
+        life = new short[length];
+        velocity = new byte[length];
+        temperature = new float[length];
+        Arrays.fill(temperature, AMBIENT_TEMPERATURE);
+        flags = new byte[length];
+        fillBorder(materialBuffers[0]);
+        fillBorder(materialBuffers[1]);
+
+        chunksX = (width + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        chunksY = (height + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        warmRows = new boolean[chunksY];
+        chunks = new Chunk[chunksX*chunksY];
+        editedChunks = new int[chunksX*chunksY];
+        for (int cy = 0; cy < chunksY; cy++) {
+            for (int cx = 0; cx < chunksX; cx++) {
+                chunks[cy*chunksX+cx] = new Chunk(cx, cy,
+                        cx*CHUNK_SIZE, cy*CHUNK_SIZE,
+                        Math.min(width, (cx+1)*CHUNK_SIZE) - 1, Math.min(height, (cy+1)*CHUNK_SIZE) - 1);
+            }
+        }
     }
 
-    public static class Surrounding {
-        public final BasePowder above;
-        public final BasePowder below;
-        public final BasePowder left;
-        public final BasePowder right;
+    /**
+     * An inclusive rectangle of cells, empty when {@code maxX < minX}.
+     */
+    public static class DirtyRect {
+        int minX;
+        int minY;
+        int maxX;
+        int maxY;
+
+        public DirtyRect() {
+            reset();
+        }
+
+        public boolean isEmpty() { return maxX < minX; }
+        public int getMinX() { return minX; }
+        public int getMinY() { return minY; }
+        public int getMaxX() { return maxX; }
+        public int getMaxY() { return maxY; }
+
+        boolean contains(int x0, int y0, int x1, int y1) {
+            return x0 >= minX && y0 >= minY && x1 <= maxX && y1 <= maxY;
+        }
+
+        void include(int x0, int y0, int x1, int y1) {
+            if (x0 < minX) minX = x0;
+            if (y0 < minY) minY = y0;
+            if (x1 > maxX) maxX = x1;
+            if (y1 > maxY) maxY = y1;
+        }
+
+        void set(DirtyRect other) {
+            minX = other.minX;
+            minY = other.minY;
+            maxX = other.maxX;
+            maxY = other.maxY;
+        }
+
+        void reset() {
+            minX = Integer.MAX_VALUE;
+            minY = Integer.MAX_VALUE;
+            maxX = Integer.MIN_VALUE;
+            maxY = Integer.MIN_VALUE;
+        }
+    }
+
+    /**
+     * A fixed-size square of the grid.
+     * <p>
+     * Every chunk keeps a worklist of the cells to update this tick, as one bit set per row (bit
+     * {@code i} of {@link #getActiveRow(int) row} {@code r} is cell {@code (left+i, top+r)}). Writes
+     * inside (or next to) the chunk wake cells for the next tick, and setting a bit twice is free,
+     * so the list never holds duplicates. A settled pile wakes nothing and costs nothing, however
+     * big it is. A chunk with no cells woken during a tick goes to sleep until something wakes it
+     * again.
+     */
+    public static class Chunk {
+        public final int chunkX;
+        public final int chunkY;
+        // bounds of the chunk in cells, inclusive
+        public final int left;
+        public final int top;
+        public final int right;
+        public final int bottom;
+
+        // cells to update this tick, one bit set per row
+        private final long[] active = new long[CHUNK_SIZE];
+        // cells woken for the next tick, laid out like active
+        private final long[] next = new long[CHUNK_SIZE];
+        private boolean awake = false;
+        // whether any cell was woken for the next tick, saves scanning the rows of sleeping chunks
+        private boolean woken = false;
+        // cells kept to react this tick, and for the next tick, laid out like active
+        private final long[] reactive = new long[CHUNK_SIZE];
+        private final long[] reactiveNext = new long[CHUNK_SIZE];
+        private boolean reacting = false;
+        private boolean reactingNext = false;
+        // cells written since the last merge
+        private final DirtyRect changed = new DirtyRect();
+        // cells merged since the renderer last cleared the damage
+        private final DirtyRect damaged = new DirtyRect();
+        // cells written by the bulk edit in progress
+        private final DirtyRect edited = new DirtyRect();
+
+        // change in population per material id since the last merge, grown as ids show up
+        private int[] populationDelta = new int[1];
+        private int filledDelta = 0;
+        private boolean counted = false;
+        // occupied cells of the chunk on the merged grid
+        private int population = 0;
 
-        public Surrounding(BasePowder above, BasePowder below, BasePowder left, BasePowder right) {
-            this.above = above;
-            this.below = below;
+        public Chunk(int chunkX, int chunkY, int left, int top, int right, int bottom) {
+            this.chunkX = chunkX;
+            this.chunkY = chunkY;
             this.left = left;
+            this.top = top;
             this.right = right;
+            this.bottom = bottom;
+        }
+
+        public boolean isAwake() { return awake; }
+        /**
+         * Get the cells to update this tick in one row of the chunk.
+         * @param row The row, counted from {@link #top}
+         * @return a bit set where bit {@code i} stands for the cell at {@code left+i}
+         */
+        public long getActiveRow(int row) { return active[row]; }
+        /**
+         * Whether any cell of the chunk was kept to react this tick, in which case it needs
+         * visiting even when it's asleep.
+         */
+        public boolean isReacting() { return reacting; }
+        /**
+         * Get the cells to check for reactions this tick in one row of the chunk: the cells
+         * woken for this tick, plus the ones kept on the reactive boundary.
+         * @param row The row, counted from {@link #top}
+         * @return a bit set where bit {@code i} stands for the cell at {@code left+i}
+         */
+        public long getReactionRow(int row) { return (awake ? active[row] : 0) | reactive[row]; }
+        /**
+         * Get the cells that changed on the merged grid since the last {@link PowderGrid#clearDamage()}.
+         */
+        public DirtyRect getDamaged() { return damaged; }
+        /**
+         * Get the number of occupied cells of the chunk on the merged grid.
+         */
+        public int getPopulation() { return population; }
+
+        // Marking cells locks, as workers updating neighboring chunks in parallel can both reach
+        // this one. During a tick the marks only ever grow, so an unlocked read can only see fewer
+        // of them than there are: if even that covers the cells, nothing needs doing. Most writes
+        // land on what's already marked, so this skips nearly all locking.
+        void wake(int x0, int y0, int x1, int y1) {
+            x0 = Math.max(x0, left);
+            y0 = Math.max(y0, top);
+            x1 = Math.min(x1, right);
+            y1 = Math.min(y1, bottom);
+            if (x0 > x1) {
+                return;
+            }
+
+            long mask = (-1L << (x0 - left)) & (-1L >>> (63 - (x1 - left)));
+            for (int row = y0 - top; row <= y1 - top; row++) {
+                if ((next[row] & mask) != mask) {
+                    synchronized (this) {
+                        next[row] |= mask;
+                        woken = true;
+                    }
+                }
+            }
+        }
+
+        // Counted per chunk rather than for the whole grid, so parallel workers only ever contend
+        // on the chunks they share. The deltas are folded into the grid's totals on merge.
+        synchronized void count(short material, int delta) {
+            if (material <= EMPTY) {
+                return;
+            }
+            if (material >= populationDelta.length) {
+                populationDelta = Arrays.copyOf(populationDelta, material+1);
+            }
+            populationDelta[material] += delta;
+            filledDelta += delta;
+            counted = true;
+        }
+
+        void markChanged(int x, int y) {
+            if (!changed.contains(x, y, x, y)) {
+                synchronized (this) {
+                    changed.include(x, y, x, y);
+                }
+            }
+        }
+
+        void markChanged(int x0, int y0, int x1, int y1) {
+            x0 = Math.max(x0, left);
+            y0 = Math.max(y0, top);
+            x1 = Math.min(x1, right);
+            y1 = Math.min(y1, bottom);
+            if (!changed.contains(x0, y0, x1, y1)) {
+                synchronized (this) {
+                    changed.include(x0, y0, x1, y1);
+                }
+            }
         }
     }
 
-    public BasePowder[] getPixels() { return pixels; }
-    public BasePowder[] getUpdatablePixels() { return updatablePixels; }
-    public int getFilledPixels() {
-        int counter = 0;
-        for (BasePowder powder : pixels) {
-            if (powder != null) {
-                counter++;
+    /**
+     * Shape of the brush used by {@link #fillBrush} and {@link #drawLine}.
+     */
+    public enum BrushShape {
+        CIRCLE,
+        SQUARE
+    }
+
+    /**
+     * Get the material ids of the merged (front) grid, as seen by the renderer.
+     * <p>
+     * The returned array is swapped out on every {@link #mergeGrid()}, so don't hold on to it.
+     *
+     * @return the merged material array
+     */
+    public short[] getMergedMaterials() { return materialBuffers[front]; }
+
+    /**
+     * Get the colors of the merged (front) grid, as seen by the renderer.
+     * <p>
+     * The returned array is swapped out on every {@link #mergeGrid()}, so don't hold on to it.
+     *
+     * @return the merged color array
+     */
+    public int[] getMergedColors() { return colorBuffers[front]; }
+
+    /**
+     * Get the number of occupied cells on the merged grid.
+     */
+    public int getFilledPixels() { return filled; }
+
+    /**
+     * Get the number of cells of one material on the merged grid.
+     * @param material The material id
+     * @return the population of the material
+     */
+    public int getPopulation(short material) {
+        return material > EMPTY && material < population.length ? population[material] : 0;
+    }
+
+    /**
+     * Get a bounding box of the occupied cells on the merged grid.
+     * <p>
+     * The box is made of whole chunks (clipped to the grid), so it may be a little larger than
+     * the occupied cells but never smaller. It is empty when the grid is.
+     * @return the bounding box, updated on every {@link #mergeGrid()}
+     */
+    public DirtyRect getOccupiedBounds() { return occupiedBounds; }
+
+    /**
+     * Get a bounding box of every cell that may hold powder on the updatable grid: the occupied
+     * chunks as of the last merge, plus every cell written since, so it also covers powder that
+     * reached chunks that were empty at the last merge.
+     * @param into The rectangle to set
+     */
+    void getUpdatableBounds(DirtyRect into) {
+        into.set(occupiedBounds);
+        for (Chunk chunk : chunks) {
+            DirtyRect changed = chunk.changed;
+            if (!changed.isEmpty()) {
+                into.include(changed.minX, changed.minY, changed.maxX, changed.maxY);
             }
         }
+    }
 
-        return counter;
+    /**
+     * Copy the per-material population of the merged grid, indexed by material id.
+     * @param into The array to copy into, reused if it has the right length
+     * @return the array holding the copy
+     */
+    int[] copyPopulation(int[] into) {
+        if (into == null || into.length != population.length) {
+            into = new int[population.length];
+        }
+        System.arraycopy(population, 0, into, 0, population.length);
+        return into;
     }
     public int getWidth() { return width; };
+    public Chunk[] getChunks() { return chunks; }
+    public int getChunksX() { return chunksX; }
+    public int getChunksY() { return chunksY; }
     public int getHeight() { return height; }
 
     /**
-     * Get the length of the 1D array.
+     * Get the length of the 1D array, including the wall border.
      *
      * @return the full length of the 1D array
      */
-    public int get1DLength() { return width*height; }
+    public int get1DLength() { return material.length; }
+
+    /**
+     * Get the distance between two vertically adjacent cells on the 1D grid.
+     *
+     * @return the row length of the 1D array
+     */
+    public int getStride() { return stride; }
 
     /**
      * Find the true location (on the 1D grid) of a pixel.
+     * <p>
+     * x,y may be up to one cell outside the grid, which maps onto the wall border.
      * @param x X position
      * @param y Y position
      * @return The index on the 1D grid
      */
     public int findTrueLocation(int x, int y) {
-        return y*width+x;
+        return (y+1)*stride + x+1;
     }
 
+    /**
+     * Get the X position of an index on the 1D grid.
+     * @param index The index on the 1D grid
+     * @return the X position
+     */
+    public int getX(int index) {
+        return index % stride - 1;
+    }
 
-//    public boolean isPowderAt(int x, int y) {
-//        for (BasePowder gridPixel : pixels) {
-//            if (gridPixel == null) {
-//                continue;
-//            }
-//
-//            if (gridPixel.x == x && gridPixel.y == y) {
-//                return true;
-//            }
-//        }
-//
-//        return false;
-//    }
+    /**
+     * Get the Y position of an index on the 1D grid.
+     * @param index The index on the 1D grid
+     * @return the Y position
+     */
+    public int getY(int index) {
+        return index / stride - 1;
+    }
 
     /**
-     * Checks if there is a powder at x,y within the updatable grid.
-     * @param x X position
-     * @param y Y Positon
+     * Find the index of a neighboring cell.
+     * @param index The index on the 1D grid
+     * @param direction The direction of the neighbor, e.g. {@link #BELOW}
+     * @return The index of the neighbor
+     */
+    public int neighborOf(int index, int direction) {
+        return index + neighborOffsets[direction];
+    }
+
+    public short getMaterialAt(int index) { return material[index]; }
+    public int getColorAt(int index) { return color[index]; }
+    public void setColorAt(int index, int color) {
+        this.color[index] = color;
+        touch(getX(index), getY(index));
+    }
+    public int getLifeAt(int index) { return life[index]; }
+    public void setLifeAt(int index, int life) {
+        this.life[index] = (short) life;
+        touch(getX(index), getY(index));
+    }
+
+    /**
+     * Get the direction the fluid at {@code index} is spreading in.
+     * @return -1 for left, 1 for right or 0 if it isn't spreading
+     */
+    public int getFlowDirection(int index) {
+        return (flags[index] & FLAG_FLOW_RIGHT) != 0 ? 1 : (flags[index] & FLAG_FLOW_LEFT) != 0 ? -1 : 0;
+    }
+    /**
+     * Set the direction the fluid at {@code index} is spreading in. Like the velocity, it moves
+     * along with the powder and nothing is woken.
+     * @param index The index on the 1D grid
+     * @param direction -1 for left, 1 for right or 0 to stop spreading
+     */
+    public void setFlowDirection(int index, int direction) {
+        byte flag = direction < 0 ? FLAG_FLOW_LEFT : direction > 0 ? FLAG_FLOW_RIGHT : 0;
+        flags[index] = (byte) ((flags[index] & ~(FLAG_FLOW_LEFT | FLAG_FLOW_RIGHT)) | flag);
+    }
+
+    /**
+     * Get how fast the powder at {@code index} is falling, in cells per tick.
+     */
+    public int getVelocityAt(int index) { return velocity[index]; }
+    /**
+     * Set how fast the powder at {@code index} is falling. The velocity moves along with the
+     * powder, and isn't drawn, so nothing is woken or marked as changed.
+     * @param index The index on the 1D grid
+     * @param velocity The velocity in cells per tick, up to {@link #MAX_FALL_SPEED}
+     */
+    public void setVelocityAt(int index, int velocity) {
+        this.velocity[index] = (byte) velocity;
+    }
+
+    /**
+     * Get the temperature of the cell at {@code index}, in degrees Celsius.
+     */
+    public float getTemperatureAt(int index) { return temperature[index]; }
+    /**
+     * Set the temperature of the cell at {@code index}. Temperature stays with the cell when powders
+     * move through it, like hot air left behind by a flame, and isn't drawn, so nothing is woken
+     * or marked as changed.
+     * @param index The index of an in-grid cell on the 1D grid
+     * @param temperature The temperature in degrees Celsius
+     */
+    public void setTemperatureAt(int index, float temperature) {
+        this.temperature[index] = temperature;
+        warmRows[(index / stride - 1) / CHUNK_SIZE] = true;
+    }
+
+    // The raw temperature field and the rows of chunks that need heat spreading, for HeatDiffusion.
+    float[] getTemperatures() { return temperature; }
+    boolean isWarmRow(int chunkY) { return warmRows[chunkY]; }
+    void setWarmRow(int chunkY, boolean warm) { warmRows[chunkY] = warm; }
+
+    /**
+     * Check whether the cell at {@code index} has already been moved this tick.
+     * @param index The index on the 1D grid
+     * @return if the cell has been updated
+     */
+    public boolean isUpdated(int index) {
+        return (flags[index] & FLAG_UPDATED) != 0;
+    }
+
+    /**
+     * Get the material id at x,y within the updatable grid.
+     * @param x X position, at most one cell outside the grid
+     * @param y Y position, at most one cell outside the grid
+     * @return The material id, {@link #EMPTY} if there is none or {@link #WALL} outside the grid
+     */
+    public short getMaterial(int x, int y) {
+        return material[findTrueLocation(x, y)];
+    }
+
+    /**
+     * Checks if there is a powder (or the wall) at x,y within the updatable grid.
+     * @param x X position, at most one cell outside the grid
+     * @param y Y Positon, at most one cell outside the grid
      * @return Whether there is a powder at x,y
      */
     public boolean isPowderAt(int x, int y) {
-        try {
-            return (updatablePixels[findTrueLocation(x, y)] != null);
-        } catch (ArrayIndexOutOfBoundsException e) {
-            return false;
+        return (material[findTrueLocation(x, y)] != EMPTY);
+    }
+
+    /**
+     * Get the occupancy of all 8 neighbors of a cell, packed into one int.
+     * <p>
+     * Bit {@code 1 << direction} is set when the neighbor in that direction (e.g. {@link #BELOW})
+     * holds a powder or the wall. Never allocates and never branches on bounds.
+     * @param index The index on the 1D grid
+     * @return the packed occupancy bits
+     */
+    public int getNeighborMask(int index) {
+        short[] material = this.material;
+        int[] offsets = neighborOffsets;
+        int mask = 0;
+        for (int direction = 0; direction < 8; direction++) {
+            int id = material[index + offsets[direction]];
+            mask |= ((id | -id) >>> 31) << direction; // 1 for anything but EMPTY
         }
+        return mask;
     }
 
+    /**
+     * Read the material ids of the neighbors of a cell into a caller supplied buffer.
+     * <p>
+     * Neighbors are written in direction order ({@link #ABOVE}, {@link #BELOW}, {@link #LEFT},
+     * {@link #RIGHT}, then the diagonals), and as many are read as the buffer holds, so pass a
+     * buffer of 4 for the direct neighbors or 8 to include the diagonals.
+     * @param index The index on the 1D grid
+     * @param out The buffer to fill, of length 4 or 8
+     */
+    public void getNeighbors(int index, short[] out) {
+        for (int direction = 0; direction < out.length; direction++) {
+            out[direction] = material[index + neighborOffsets[direction]];
+        }
+    }
 
     /**
      * Check if {@code original} can be displaced by {@code with}.
@@ -101,7 +604,7 @@ public class PowderGrid {
      * @param reverse Whether to check if fIndex is greater than instead
      * @return if displacement is allowed
      */
-    public boolean canDisplace(BasePowder original, BasePowder with, boolean reverse) {
+    public boolean canDisplace(Material original, Material with, boolean reverse) {
         if (original == null || with == null) {
             return false;
         }
@@ -116,147 +619,625 @@ public class PowderGrid {
             return (original.fIndex < with.fIndex);
         }
     }
-    public boolean canDisplace(BasePowder original, BasePowder with) {
+    public boolean canDisplace(Material original, Material with) {
         return canDisplace(original, with, false);
     }
 
-    public boolean hasNeighborsBelow(BasePowder powder) {
-        return isPowderAt(powder.x+1, powder.y+1) &&
-                isPowderAt(powder.x-1, powder.y+1);
+    public boolean hasNeighborsBelow(int x, int y) {
+        return isPowderAt(x+1, y+1) &&
+                isPowderAt(x-1, y+1);
     }
 
-    public boolean hasNeighborsBeside(BasePowder powder) {
-        return isPowderAt(powder.x+1, powder.y)&&
-                isPowderAt(powder.x-1, powder.y);
+    public boolean hasNeighborsBeside(int x, int y) {
+        return isPowderAt(x+1, y)&&
+                isPowderAt(x-1, y);
     }
 
-    public boolean hasNeighborBelow(BasePowder powder) {
-        try {
-            return isPowderAt(powder.x, powder.y+1);
-        } catch (ArrayIndexOutOfBoundsException e) {
-            return false;
+    public boolean hasNeighborBelow(int x, int y) {
+        return isPowderAt(x, y+1);
+    }
+
+    public boolean hasNeighborAbove(int x, int y) {
+        return isPowderAt(x, y-1);
+    }
+
+    /**
+     * Place a fresh powder at x,y on the updatable grid. A powder that gives off heat warms its
+     * cell up to its {@link Material#heat} straight away.
+     * @param x X position
+     * @param y Y position
+     * @param with The material of the powder
+     */
+    public void setPixel(int x, int y, Material with) {
+        if (!isInBounds(x, y)) {
+            throw new RuntimeException("Out of bounds! (" + x + "," + y + "}");
         }
+
+        int pos = findTrueLocation(x, y);
+        recount(x, y, material[pos], with.id);
+        material[pos] = with.id;
+        color[pos] = with.originalColor;
+        life[pos] = (short) with.originalLife;
+        velocity[pos] = 0;
+        flags[pos] = 0;
+        heat(pos, y, with);
+        touch(x, y);
     }
 
-    public boolean hasNeighborAbove(BasePowder powder) {
-        try {
-            return isPowderAt(powder.x, powder.y-1);
-        } catch (ArrayIndexOutOfBoundsException e) {
+    public void erasePixel(int x, int y) {
+        if (!isInBounds(x, y)) {
+            return;
+        }
+
+        int pos = findTrueLocation(x, y);
+        recount(x, y, material[pos], EMPTY);
+        material[pos] = EMPTY;
+        color[pos] = 0;
+        life[pos] = 0;
+        velocity[pos] = 0;
+        flags[pos] = 0;
+        touch(x, y);
+    }
+
+    // Bulk edits. These write their cells straight into the arrays and only mark what they wrote as
+    // changed (and awake) once, at the end, as one bounding box per chunk written to. A line or
+    // an irregular fill only wakes the chunks it crosses. They aren't meant to be called from
+    // parallel update workers.
+
+    /**
+     * Write a fresh powder (or nothing) to an in-bounds cell as part of a bulk edit.
+     * @return if the cell was written
+     */
+    private boolean editCell(int x, int y, Material with, boolean overwrite) {
+        int pos = findTrueLocation(x, y);
+        short id = with != null ? with.id : EMPTY;
+        if ((!overwrite && material[pos] != EMPTY) || (id == EMPTY && material[pos] == EMPTY)) {
             return false;
         }
+
+        recount(x, y, material[pos], id);
+        material[pos] = id;
+        color[pos] = with != null ? with.originalColor : 0;
+        life[pos] = with != null ? (short) with.originalLife : 0;
+        velocity[pos] = 0;
+        flags[pos] = 0;
+        if (with != null) {
+            heat(pos, y, with);
+        }
+        int chunk = (y / CHUNK_SIZE)*chunksX + x / CHUNK_SIZE;
+        if (chunks[chunk].edited.isEmpty()) {
+            editedChunks[editedCount++] = chunk;
+        }
+        chunks[chunk].edited.include(x, y, x, y);
+        return true;
     }
 
-    public Surrounding getSurrounding(BasePowder powder) {
-        BasePowder above;
-        BasePowder below;
-        BasePowder left;
-        BasePowder right;
-        try {
-            above = updatablePixels[findTrueLocation(powder.x, powder.y-1)];
-        } catch (ArrayIndexOutOfBoundsException e) {
-            above = null;
+    /**
+     * Warm a freshly placed powder's cell up to the material's heat, if it gives off any.
+     */
+    private void heat(int pos, int y, Material with) {
+        if (with.heat > temperature[pos]) {
+            temperature[pos] = with.heat;
+            warmRows[y / CHUNK_SIZE] = true;
         }
-        try {
-            below = updatablePixels[findTrueLocation(powder.x, powder.y+1)];
-        } catch (ArrayIndexOutOfBoundsException e) {
-            below = null;
+    }
+
+    /**
+     * Finish a bulk edit, marking everything it wrote.
+     */
+    private void endEdit() {
+        for (int i = 0; i < editedCount; i++) {
+            DirtyRect edited = chunks[editedChunks[i]].edited;
+            touch(edited.minX, edited.minY, edited.maxX, edited.maxY);
+            edited.reset();
         }
-        try {
-            if (powder.x-1 > 0) { // prevent wrapping
-                left = updatablePixels[findTrueLocation(powder.x-1, powder.y)];
-            } else {
-                left = null;
+        editedCount = 0;
+    }
+
+    /**
+     * Fill a brush-shaped area of cells.
+     * @param cx X position of the center
+     * @param cy Y position of the center
+     * @param radius Radius of the brush in cells, 0 for a single cell
+     * @param shape Shape of the brush
+     * @param with The powder to fill with, or null to erase
+     * @param overwrite Whether to replace cells holding powder, otherwise only empty cells are filled
+     * @return the number of cells written
+     */
+    public int fillBrush(int cx, int cy, int radius, BrushShape shape, Material with, boolean overwrite) {
+        int written = stamp(cx, cy, radius, shape, with, overwrite);
+        endEdit();
+        return written;
+    }
+
+    private int stamp(int cx, int cy, int radius, BrushShape shape, Material with, boolean overwrite) {
+        int written = 0;
+        for (int dy = -radius; dy <= radius; dy++) {
+            int y = cy + dy;
+            if (y < 0 || y >= height) {
+                continue;
+            }
+
+            // the disc includes cells up to radius + 1/2 away, which gives rounder small brushes
+            int span = shape == BrushShape.CIRCLE ? (int) Math.sqrt(radius*radius + radius - dy*dy) : radius;
+            for (int x = Math.max(cx - span, 0); x <= Math.min(cx + span, width-1); x++) {
+                if (editCell(x, y, with, overwrite)) {
+                    written++;
+                }
             }
-        } catch (ArrayIndexOutOfBoundsException e) {
-            left = null;
         }
-        try {
-            if (powder.x+1 <= width-1) { // prevent wrapping
-                right = updatablePixels[findTrueLocation(powder.x+1, powder.y)];
-            } else {
-                right = null;
+        return written;
+    }
+
+    /**
+     * Draw a line of brush stamps from x0,y0 to x1,y1, e.g. between two mouse samples, so fast
+     * strokes don't leave gaps.
+     * @param x0 X position of the start
+     * @param y0 Y position of the start
+     * @param x1 X position of the end
+     * @param y1 Y position of the end
+     * @param radius Radius of the brush in cells, 0 for a single cell
+     * @param shape Shape of the brush
+     * @param with The powder to draw with, or null to erase
+     * @param overwrite Whether to replace cells holding powder, otherwise only empty cells are filled
+     * @return the number of cells written
+     */
+    public int drawLine(int x0, int y0, int x1, int y1, int radius, BrushShape shape, Material with, boolean overwrite) {
+        // Bresenham
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int stepX = x0 < x1 ? 1 : -1;
+        int stepY = y0 < y1 ? 1 : -1;
+        int error = dx + dy;
+
+        int written = 0;
+        while (true) {
+            written += stamp(x0, y0, radius, shape, with, overwrite);
+            if (x0 == x1 && y0 == y1) {
+                break;
+            }
+
+            int error2 = 2*error;
+            if (error2 >= dy) {
+                error += dy;
+                x0 += stepX;
+            }
+            if (error2 <= dx) {
+                error += dx;
+                y0 += stepY;
             }
-        } catch (ArrayIndexOutOfBoundsException e) {
-            right = null;
         }
-        return new Surrounding(above, below, left, right);
+        endEdit();
+        return written;
     }
 
-    public void setPixel(int x, int y, BasePowder powder) {
-        int pos = findTrueLocation(x, y);
+    /**
+     * Fill an inclusive rectangle of cells, clipped to the grid.
+     * @param x0 Left edge
+     * @param y0 Top edge
+     * @param x1 Right edge
+     * @param y1 Bottom edge
+     * @param with The powder to fill with, or null to erase
+     * @param overwrite Whether to replace cells holding powder, otherwise only empty cells are filled
+     * @return the number of cells written
+     */
+    public int fillRect(int x0, int y0, int x1, int y1, Material with, boolean overwrite) {
+        int written = 0;
+        for (int y = Math.max(Math.min(y0, y1), 0); y <= Math.min(Math.max(y0, y1), height-1); y++) {
+            for (int x = Math.max(Math.min(x0, x1), 0); x <= Math.min(Math.max(x0, x1), width-1); x++) {
+                if (editCell(x, y, with, overwrite)) {
+                    written++;
+                }
+            }
+        }
+        endEdit();
+        return written;
+    }
 
-        try {
-            updatablePixels[pos] = powder;
-        } catch (ArrayIndexOutOfBoundsException e) {
-            throw new RuntimeException("Out of bounds! (" + x + "," + y + "}");
+    /**
+     * Replace every cell of one material within an inclusive rectangle, clipped to the grid.
+     * @param x0 Left edge
+     * @param y0 Top edge
+     * @param x1 Right edge
+     * @param y1 Bottom edge
+     * @param from The material id to replace, may be {@link #EMPTY}
+     * @param with The powder to replace it with, or null to erase
+     * @return the number of cells written
+     */
+    public int replaceMaterial(int x0, int y0, int x1, int y1, short from, Material with) {
+        int written = 0;
+        for (int y = Math.max(Math.min(y0, y1), 0); y <= Math.min(Math.max(y0, y1), height-1); y++) {
+            int pos = findTrueLocation(0, y);
+            for (int x = Math.max(Math.min(x0, x1), 0); x <= Math.min(Math.max(x0, x1), width-1); x++) {
+                if (material[pos + x] == from && editCell(x, y, with, true)) {
+                    written++;
+                }
+            }
+        }
+        endEdit();
+        return written;
+    }
+
+    /**
+     * Flood fill the 4-connected area of cells sharing the material at x,y.
+     * <p>
+     * Works a row span at a time (scanline fill), with an explicit stack instead of recursion, so
+     * it copes with filling the whole grid.
+     * @param x X position to start from
+     * @param y Y position to start from
+     * @param with The powder to fill with, or null to erase
+     * @return the number of cells written
+     */
+    public int floodFill(int x, int y, Material with) {
+        if (!isInBounds(x, y)) {
+            return 0;
+        }
+        short target = material[findTrueLocation(x, y)];
+        if (target == (with != null ? with.id : EMPTY)) {
+            return 0;
+        }
+
+        int written = 0;
+        int[] stack = new int[64];
+        int size = 0;
+        stack[size++] = findTrueLocation(x, y);
+        while (size > 0) {
+            int pos = stack[--size];
+            if (material[pos] != target) {
+                continue; // already filled through another span
+            }
+
+            // the wall border never matches, so these stop at the edges by themselves
+            int left = pos;
+            while (material[left-1] == target) {
+                left--;
+            }
+            int right = pos;
+            while (material[right+1] == target) {
+                right++;
+            }
+
+            int row = getY(pos);
+            for (int i = left; i <= right; i++) {
+                editCell(getX(i), row, with, true);
+            }
+            written += right - left + 1;
+
+            // queue the start of every matching run directly above and below the span
+            for (int offset = -stride; offset <= stride; offset += 2*stride) {
+                boolean inRun = false;
+                for (int i = left + offset; i <= right + offset; i++) {
+                    boolean matches = material[i] == target;
+                    if (matches && !inRun) {
+                        if (size == stack.length) {
+                            stack = Arrays.copyOf(stack, size*2);
+                        }
+                        stack[size++] = i;
+                    }
+                    inRun = matches;
+                }
+            }
         }
-        powder.x = x;
-        powder.y = y;
+        endEdit();
+        return written;
+    }
 
+    /**
+     * Check whether x,y lies within the grid (not on the wall border).
+     * @param x X position
+     * @param y Y position
+     * @return if x,y is inside the grid
+     */
+    public boolean isInBounds(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height;
     }
 
-    public void erasePixel(int x, int y) {
-        try {
-            int pos = findTrueLocation(x, y);
-            updatablePixels[pos].erased = true; // mark it as erased
-            updatablePixels[pos] = null;
-        } catch (ArrayIndexOutOfBoundsException ignored) { }
+    /**
+     * Keep x,y (and its neighbors) awake for the next tick without changing anything.
+     * <p>
+     * Used by powders that could have moved but randomly chose not to this tick.
+     * @param x X position
+     * @param y Y position
+     */
+    public void wake(int x, int y) {
+        wake(x-1, y-1, x+1, y+1);
     }
 
     /**
-     * Merge the update grid with the actual grid.
+     * Keep an inclusive rectangle of cells awake for the next tick, clipped to the grid.
+     * <p>
+     * Used by materials whose moves depend on cells further away than their direct neighbors.
      */
-    public void mergeGrid() {
-        pixels = updatablePixels.clone();
+    public void wake(int x0, int y0, int x1, int y1) {
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, width-1);
+        y1 = Math.min(y1, height-1);
+
+        for (int cy = y0 / CHUNK_SIZE; cy <= y1 / CHUNK_SIZE; cy++) {
+            for (int cx = x0 / CHUNK_SIZE; cx <= x1 / CHUNK_SIZE; cx++) {
+                chunks[cy*chunksX+cx].wake(x0, y0, x1, y1);
+            }
+        }
     }
 
-    public void clearGrid() {
-        Arrays.fill(updatablePixels, null);
+    /**
+     * Keep x,y on the reactive boundary for the next tick, without waking it.
+     * <p>
+     * Used for reactions that could have fired but didn't this tick. Only ever marks the chunk
+     * of the calling worker, so nothing is locked.
+     * @param x X position
+     * @param y Y position
+     */
+    public void keepReacting(int x, int y) {
+        Chunk chunk = chunks[(y / CHUNK_SIZE)*chunksX + x / CHUNK_SIZE];
+        chunk.reactiveNext[y - chunk.top] |= 1L << (x - chunk.left);
+        chunk.reactingNext = true;
+    }
+
+    /**
+     * Record a write to x,y, both for the next merge and for waking the surrounding chunks.
+     */
+    private void touch(int x, int y) {
+        chunks[(y / CHUNK_SIZE)*chunksX + x / CHUNK_SIZE].markChanged(x, y);
+        changed = true;
+        wake(x, y);
     }
 
-    public void movePixel(int x, int y, BasePowder powder) {
-        int oldPos = findTrueLocation(powder.x, powder.y);
+    /**
+     * Record writes to an inclusive rectangle of cells, like {@link #touch(int, int)} does for one.
+     */
+    private void touch(int x0, int y0, int x1, int y1) {
+        for (int cy = y0 / CHUNK_SIZE; cy <= y1 / CHUNK_SIZE; cy++) {
+            for (int cx = x0 / CHUNK_SIZE; cx <= x1 / CHUNK_SIZE; cx++) {
+                chunks[cy*chunksX+cx].markChanged(x0, y0, x1, y1);
+            }
+        }
+        changed = true;
+        wake(x0-1, y0-1, x1+1, y1+1);
+    }
 
-        if (x >= 0 && x < width && y >= 0 && y < height) {
-            int newPos = findTrueLocation(x, y);
+    private Chunk chunkAt(int x, int y) {
+        return chunks[(y / CHUNK_SIZE)*chunksX + x / CHUNK_SIZE];
+    }
 
-            BasePowder displacedPowder = updatablePixels[newPos];
+    /**
+     * Count a cell at x,y changing from one material to another.
+     */
+    private void recount(int x, int y, short from, short to) {
+        if (from != to) {
+            Chunk chunk = chunkAt(x, y);
+            chunk.count(from, -1);
+            chunk.count(to, 1);
+        }
+    }
 
-            // Swap positions if there's a powder in the new position
-            if (displacedPowder != null) {
-                updatablePixels[oldPos] = displacedPowder;
-                // ensure the displaced powder reflects the new position
-                displacedPowder.x = powder.x;
-                displacedPowder.y = powder.y;
-            } else {
-                updatablePixels[oldPos] = null;
+    /**
+     * Start a new simulation tick.
+     * <p>
+     * Every chunk takes the cells woken during the last tick as its worklist (chunks with none go
+     * to sleep), and the per-tick flags of those cells are cleared.
+     */
+    public void beginTick() {
+        for (Chunk chunk : chunks) {
+            if (chunk.reactingNext || chunk.reacting) {
+                System.arraycopy(chunk.reactiveNext, 0, chunk.reactive, 0, CHUNK_SIZE);
+                Arrays.fill(chunk.reactiveNext, 0);
+                chunk.reacting = chunk.reactingNext;
+                chunk.reactingNext = false;
             }
 
-            updatablePixels[newPos] = powder;
-            powder.x = x;
-            powder.y = y;
+            chunk.awake = chunk.woken;
+            if (!chunk.woken) {
+                continue;
+            }
+            chunk.woken = false;
+
+            for (int row = 0; row < CHUNK_SIZE; row++) {
+                long bits = chunk.next[row];
+                chunk.active[row] = bits;
+                if (bits == 0) {
+                    continue;
+                }
+                chunk.next[row] = 0;
+
+                int pos = findTrueLocation(chunk.left, chunk.top + row);
+                for (; bits != 0; bits &= bits - 1) {
+                    flags[pos + Long.numberOfTrailingZeros(bits)] &= ~FLAG_UPDATED;
+                }
+            }
         }
     }
 
+    /**
+     * Merge the update grid with the actual grid.
+     * <p>
+     * Flips the front and back buffers, then brings the new back buffer up to date by copying
+     * only the rectangles that changed since the last merge. Nothing is allocated, and the cost
+     * scales with the changed area rather than the grid area. The population counts catch up
+     * with the merged cells as well.
+     */
+    public void mergeGrid() {
+        if (!changed) {
+            return;
+        }
+
+        mergePopulation();
 
-    public void refreshAllPixels() {
-        for (int i = 0; i < updatablePixels.length; i++) {
-            BasePowder gridPixel = updatablePixels[i];
+        front = 1 - front;
+        material = materialBuffers[1 - front];
+        color = colorBuffers[1 - front];
 
-            if (gridPixel == null) {
+        for (Chunk chunk : chunks) {
+            DirtyRect rect = chunk.changed;
+            if (rect.isEmpty()) {
                 continue;
             }
 
-            // Ensure newX and newY are within bounds
-            if (gridPixel.x >= 0 && gridPixel.x < width && gridPixel.y >= 0 && gridPixel.y <= height-1) {
-                int newIndex = (gridPixel.y * width + gridPixel.x);
+            int length = rect.maxX - rect.minX + 1;
+            for (int y = rect.minY; y <= rect.maxY; y++) {
+                int pos = findTrueLocation(rect.minX, y);
+                System.arraycopy(materialBuffers[front], pos, material, pos, length);
+                System.arraycopy(colorBuffers[front], pos, color, pos, length);
+            }
+            chunk.damaged.include(rect.minX, rect.minY, rect.maxX, rect.maxY);
+            rect.reset();
+        }
+        changed = false;
+    }
 
-                updatablePixels[i] = null;
-                updatablePixels[newIndex] = gridPixel;
-            } else {
-                throw new RuntimeException("Out of bounds! (" + gridPixel.x + "," + gridPixel.y + "}");
+    private void mergePopulation() {
+        boolean boundsChanged = cleared;
+        if (cleared) {
+            Arrays.fill(population, 0);
+            filled = 0;
+            for (Chunk chunk : chunks) {
+                chunk.population = 0;
             }
+            cleared = false;
         }
+
+        for (Chunk chunk : chunks) {
+            if (!chunk.counted) {
+                continue;
+            }
+
+            int[] delta = chunk.populationDelta;
+            if (delta.length > population.length) {
+                population = Arrays.copyOf(population, delta.length);
+            }
+            for (int id = 1; id < delta.length; id++) {
+                population[id] += delta[id];
+                delta[id] = 0;
+            }
+            boundsChanged |= (chunk.population == 0) != (chunk.population + chunk.filledDelta == 0);
+            chunk.population += chunk.filledDelta;
+            filled += chunk.filledDelta;
+            chunk.filledDelta = 0;
+            chunk.counted = false;
+        }
+
+        if (boundsChanged) {
+            occupiedBounds.reset();
+            for (Chunk chunk : chunks) {
+                if (chunk.population != 0) {
+                    occupiedBounds.include(chunk.left, chunk.top, chunk.right, chunk.bottom);
+                }
+            }
+        }
+    }
+
+    /**
+     * Forget the damage accumulated by every chunk, once a reader has caught up with it.
+     * <p>
+     * Merges keep adding to each chunk's {@link Chunk#getDamaged() damaged} rectangle until this
+     * is called, so a renderer that skips a few merges still sees everything that changed.
+     */
+    public void clearDamage() {
+        for (Chunk chunk : chunks) {
+            chunk.damaged.reset();
+        }
+    }
+
+    public void clearGrid() {
+        Arrays.fill(material, EMPTY);
+        Arrays.fill(color, 0);
+        Arrays.fill(life, (short) 0);
+        Arrays.fill(velocity, (byte) 0);
+        Arrays.fill(temperature, AMBIENT_TEMPERATURE);
+        Arrays.fill(flags, (byte) 0);
+        Arrays.fill(warmRows, false);
+        fillBorder(material);
+
+        for (Chunk chunk : chunks) {
+            chunk.changed.include(chunk.left, chunk.top, chunk.right, chunk.bottom);
+            chunk.wake(chunk.left, chunk.top, chunk.right, chunk.bottom);
+            Arrays.fill(chunk.reactiveNext, 0);
+            chunk.reactingNext = false;
+            Arrays.fill(chunk.populationDelta, 0);
+            chunk.filledDelta = 0;
+        }
+        cleared = true;
+        changed = true;
+    }
+
+    /**
+     * Surround the grid with {@link #WALL} sentinels.
+     */
+    private void fillBorder(short[] material) {
+        Arrays.fill(material, 0, stride, WALL);
+        Arrays.fill(material, material.length - stride, material.length, WALL);
+        for (int y = 0; y < height; y++) {
+            material[findTrueLocation(-1, y)] = WALL;
+            material[findTrueLocation(width, y)] = WALL;
+        }
+    }
+
+    /**
+     * Move the powder at x,y to newX,newY, swapping it with whatever is already there.
+     * <p>
+     * The moved powder is flagged as {@link #FLAG_UPDATED} so it isn't processed twice in one tick.
+     * Moves out of the grid are ignored.
+     * @param x X position of the powder
+     * @param y Y position of the powder
+     * @param newX X position to move to
+     * @param newY Y position to move to
+     */
+    public void movePixel(int x, int y, int newX, int newY) {
+        if (isInBounds(newX, newY)) {
+            swapPixels(x, y, findTrueLocation(x, y), newX, newY, findTrueLocation(newX, newY));
+        }
+    }
+
+    /**
+     * Move the powder at index {@code from} to index {@code to}, swapping it with whatever is
+     * already there.
+     * <p>
+     * Meant for the update loop: instead of a bounds check, a move onto the {@link #WALL} border
+     * is simply refused, so {@code to} may be anything up to one cell outside the grid.
+     * @param from The index of the powder on the 1D grid
+     * @param to The index to move to
+     */
+    public void movePixel(int from, int to) {
+        if (material[to] != WALL) {
+            int row = from / stride;
+            int newRow = to / stride;
+            swapPixels(from - row*stride - 1, row - 1, from, to - newRow*stride - 1, newRow - 1, to);
+        }
+    }
+
+    private void swapPixels(int x, int y, int oldPos, int newX, int newY, int newPos) {
+        if (newPos == oldPos) {
+            return; // staying put, nothing to wake
+        }
+
+        // Swap positions, the displaced powder (if any) takes our old spot
+        short displacedMaterial = material[newPos];
+        int displacedColor = color[newPos];
+        short displacedLife = life[newPos];
+        byte displacedVelocity = velocity[newPos];
+        byte displacedFlags = flags[newPos];
+
+        material[newPos] = material[oldPos];
+        color[newPos] = color[oldPos];
+        life[newPos] = life[oldPos];
+        velocity[newPos] = velocity[oldPos];
+        flags[newPos] = (byte) (flags[oldPos] | FLAG_UPDATED);
+
+        material[oldPos] = displacedMaterial;
+        color[oldPos] = displacedColor;
+        life[oldPos] = displacedLife;
+        velocity[oldPos] = displacedVelocity;
+        flags[oldPos] = displacedFlags;
+
+        if (x / CHUNK_SIZE != newX / CHUNK_SIZE || y / CHUNK_SIZE != newY / CHUNK_SIZE) {
+            // only moves between chunks change the chunks' populations
+            recount(x, y, material[newPos], displacedMaterial);
+            recount(newX, newY, displacedMaterial, material[newPos]);
+        }
+
+        touch(x, y);
+        touch(newX, newY);
     }
 
 }
@@ -0,0 +1,389 @@
+package com.jpowder;
+
+import com.jpowder.behavior.MaterialBehavior;
+import com.jpowder.powder.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The powder simulation.
+ * <p>
+ * Applies the movement and relationship rules of every registered powder to a {@link PowderGrid},
+ * one tick at a time. Knows nothing about windows or rendering.
+ */
+public class PowderSimulation {
+    // the order neighbors are tried in for reactions, and the offset of each, indexed by direction
+    private static final int[] REACTION_ORDER = { PowderGrid.BELOW, PowderGrid.ABOVE, PowderGrid.LEFT, PowderGrid.RIGHT };
+    private static final int[] REACTION_DX = { 0, 0, -1, 1 };
+    private static final int[] REACTION_DY = { -1, 1, 0, 0 };
+
+    private final PowderGrid pg;
+    private final Registry pr;
+    private ForkJoinPool pool;
+    private final HeatDiffusion heat;
+    private final FluidPressure pressure;
+    private int pressureInterval = 0;
+
+    // one generator per thread, reseeded for every chunk so runs are reproducible in either mode
+    private final ThreadLocal<SimRandom> random = ThreadLocal.withInitial(() -> new SimRandom(0));
+    private long seed = System.nanoTime();
+    private long tick = 0;
+
+    public boolean rainbow = false;
+    public boolean parallelMode = false;
+
+    public PowderSimulation(PowderGrid pg, Registry pr) {
+        this.pg = pg;
+        this.pr = pr;
+        heat = new HeatDiffusion(pg, pr);
+        pressure = new FluidPressure(pg, pr);
+    }
+
+    /**
+     * Set the seed for all simulation decisions. The same seed and starting world reproduce the
+     * same run, serial or parallel.
+     * @param seed The seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Level out connected bodies of fluid every few ticks, like communicating vessels, on top of
+     * the local flow of every tick. See {@link FluidPressure}.
+     * @param ticks Ticks between pressure passes, or 0 to turn them off
+     */
+    public void setPressureInterval(int ticks) {
+        pressureInterval = Math.max(0, ticks);
+    }
+    public int getPressureInterval() {
+        return pressureInterval;
+    }
+
+    /**
+     * Get the number of ticks run so far.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Update all pixels on the grid.
+     * <p>
+     * Only the cells woken last tick are visited, and they are updated in place. Cells that have
+     * already been moved this tick are flagged by the grid and skipped, so nothing is processed
+     * twice. Reactions are checked for the woken cells and the reactive boundary only, see
+     * {@link #reactPixel}. Heat is spread afterwards, see {@link HeatDiffusion}.
+     */
+    public void updatePixels() {
+        pg.beginTick();
+        tick++;
+
+        if (parallelMode) {
+            updatePixelsParallel();
+        } else {
+            // in the same order as the parallel passes, so a seed reproduces a run in either mode
+            PowderGrid.Chunk[] chunks = pg.getChunks();
+            int chunksX = pg.getChunksX();
+            for (int chunkY = pg.getChunksY() - 1; chunkY >= 0; chunkY--) {
+                for (int parity = 0; parity < 2; parity++) {
+                    for (int chunkX = parity; chunkX < chunksX; chunkX += 2) {
+                        PowderGrid.Chunk chunk = chunks[chunkY*chunksX + chunkX];
+                        if (!chunk.isAwake() && !chunk.isReacting()) { // nothing has changed here, let it sleep
+                            continue;
+                        }
+
+                        updateChunk(chunk);
+                    }
+                }
+            }
+        }
+
+        heat.run();
+        if (pressureInterval > 0 && tick % pressureInterval == 0) {
+            pressure.run();
+        }
+    }
+
+    /**
+     * Update all awake chunks across every core.
+     * <p>
+     * Rows of chunks are updated bottom to top like in a serial tick, so falling columns still
+     * move as a whole. Each row takes 2 passes, its even then its odd chunks, with the chunks of
+     * a pass running concurrently on the pool. Powders never reach further sideways than
+     * {@link PowderGrid#MAX_DISPERSION}, so two chunks of the same pass never touch the same
+     * cells, and each worker thread draws from its own {@link SimRandom}.
+     */
+    private void updatePixelsParallel() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+
+        PowderGrid.Chunk[] chunks = pg.getChunks();
+        int chunksX = pg.getChunksX();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        for (int chunkY = pg.getChunksY() - 1; chunkY >= 0; chunkY--) {
+            for (int parity = 0; parity < 2; parity++) {
+                tasks.clear();
+                for (int chunkX = parity; chunkX < chunksX; chunkX += 2) {
+                    PowderGrid.Chunk chunk = chunks[chunkY*chunksX + chunkX];
+                    if (chunk.isAwake() || chunk.isReacting()) {
+                        tasks.add(ForkJoinTask.adapt(() -> updateChunk(chunk)));
+                    }
+                }
+
+                if (tasks.size() == 1) {
+                    tasks.get(0).invoke(); // not worth handing over to the pool
+                } else if (!tasks.isEmpty()) {
+                    pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Update the woken cells of a single chunk, after reacting its reactive boundary.
+     * <p>
+     * Rows are visited bottom to top, so a falling column moves as a whole: every powder falls
+     * into the space the one below it just left, rather than waiting a tick for it. The direction
+     * within a row flips every tick, so powders spreading sideways aren't biased towards the side
+     * scanned first.
+     * @param chunk The chunk to update
+     */
+    private void updateChunk(PowderGrid.Chunk chunk) {
+        SimRandom rand = random.get();
+        rand.setSeed(SimRandom.mix(seed ^ SimRandom.mix(tick*pg.getChunks().length + chunk.chunkY*pg.getChunksX() + chunk.chunkX)));
+        short[] neighbors = new short[4]; // reused for every pixel of the chunk
+        for (int row = chunk.bottom - chunk.top; row >= 0; row--) {
+            for (long bits = chunk.getReactionRow(row); bits != 0; bits &= bits - 1) {
+                reactPixel(chunk.left + Long.numberOfTrailingZeros(bits), chunk.top + row, rand, neighbors);
+            }
+        }
+        if (!chunk.isAwake()) {
+            return;
+        }
+
+        boolean leftward = (tick & 1) != 0;
+        for (int row = chunk.bottom - chunk.top; row >= 0; row--) {
+            long bits = chunk.getActiveRow(row);
+            while (bits != 0) {
+                int bit = leftward ? 63 - Long.numberOfLeadingZeros(bits) : Long.numberOfTrailingZeros(bits);
+                bits &= ~(1L << bit);
+                updatePixel(chunk.left + bit, chunk.top + row, rand);
+            }
+        }
+    }
+
+    /**
+     * Update a single pixel on the grid.
+     * <p>
+     * Neighbors are found by plain index offsets ({@code index-1}, {@code index+stride} and so on); the
+     * grid's wall border keeps them inside the arrays, so nothing here checks bounds.
+     * @param x X position
+     * @param y Y position
+     * @param rand The RNG to draw from
+     */
+    private void updatePixel(int x, int y, SimRandom rand) {
+        int index = pg.findTrueLocation(x, y);
+        short material = pg.getMaterialAt(index);
+        if (material == PowderGrid.EMPTY || pg.isUpdated(index)) { // no pixel here, or it already moved
+            return;
+        }
+        Material powder = pr.getMaterial(material);
+        MaterialBehavior behavior = pr.getBehavior(material);
+
+        if (rainbow) {
+            pg.setColorAt(index, rand.nextInt(0xffffff));
+        }
+
+        if (behavior.isStatic()) {
+            return;
+        }
+
+        int target = behavior.update(pg, x, y, index, powder, rand);
+        if (target == MaterialBehavior.REMOVED) {
+            return;
+        }
+
+        // float shift, powder can move pixels of a lower fIndex that itself
+        int sink = index + pg.getStride();
+        if (pg.canDisplace(pr.getMaterial(pg.getMaterialAt(sink)), powder)) {
+            // sink into the row below, keeping a sideways step of one cell the behavior picked if
+            // the cell diagonally below can be displaced too; fluids may have picked a step much
+            // further out, which would reach cells that were never checked
+            int step = target - index;
+            if ((step == -1 || step == 1) && pg.canDisplace(pr.getMaterial(pg.getMaterialAt(sink + step)), powder)) {
+                sink += step;
+            }
+            pg.movePixel(index, sink);
+            return;
+        }
+
+        boolean swapLeft = canSwapSideways(index-1, powder);
+        boolean swapRight = canSwapSideways(index+1, powder);
+        if (swapLeft || swapRight) {
+            pg.wake(x, y); // sideways swaps are a coin flip, so stay awake until one happens
+        }
+
+        boolean shouldMoveLeft = rand.nextBoolean();
+        if (pg.getMaterialAt(index-1) != PowderGrid.EMPTY && shouldMoveLeft) {
+            if (swapLeft && rand.nextBoolean()) {
+                pg.movePixel(index, index-1);
+                return;
+            }
+        } else if (pg.getMaterialAt(index+1) != PowderGrid.EMPTY) {
+            if (swapRight && rand.nextBoolean()) {
+                pg.movePixel(index, index+1);
+                return;
+            }
+        }
+
+        pg.movePixel(index, target); // moves onto the wall border are refused by the grid
+    }
+
+    /**
+     * React the powder at x,y with one of its neighbors, if it has a relationship with one.
+     * <p>
+     * Only cells on the reactive boundary get here: the ones woken by a write next to them, and
+     * the ones kept from last tick because a reaction didn't fire yet. Cells with no reactive
+     * neighbor are ruled out with a single AND and drop out of the boundary.
+     * @param x X position
+     * @param y Y position
+     * @param rand The RNG to draw from
+     * @param neighbors Scratch buffer for the 4 direct neighbors, owned by the calling thread
+     */
+    private void reactPixel(int x, int y, SimRandom rand, short[] neighbors) {
+        int index = pg.findTrueLocation(x, y);
+        short material = pg.getMaterialAt(index);
+        long partners = material > PowderGrid.EMPTY ? pr.getReactivePartners(material) : 0;
+        if (partners == 0) {
+            return;
+        }
+
+        pg.getNeighbors(index, neighbors); // get all surrounding pixels
+        long neighborBits = 1L << neighbors[PowderGrid.ABOVE] | 1L << neighbors[PowderGrid.BELOW]
+                | 1L << neighbors[PowderGrid.LEFT] | 1L << neighbors[PowderGrid.RIGHT];
+        int direction = (partners & neighborBits) != 0 ? findReaction(x, y, material, neighbors, neighborBits, rand) : -1;
+        if (direction < 0) {
+            return;
+        }
+
+        short relationshipMaterial = neighbors[direction];
+        Registry.RelationshipEntry relationship = pr.getRelationship(material, relationshipMaterial);
+        int relationshipX = x + REACTION_DX[direction];
+        int relationshipY = y + REACTION_DY[direction];
+        if (relationship.relationshipType == RelationshipType.MERGE) {
+            // combine two powders into 'out'
+
+            pg.erasePixel(x, y);
+            pg.erasePixel(relationshipX, relationshipY);
+
+            placePowder(relationshipX, relationshipY, relationship.outMaterial);
+        } else if (relationship.relationshipType == RelationshipType.CONSUME) {
+            // 'out' consumes the other powder
+
+            if (material == relationship.outMaterial) {
+                pg.erasePixel(relationshipX, relationshipY);
+            } else {
+                pg.erasePixel(x, y);
+            }
+        } else if (relationship.relationshipType == RelationshipType.PAINT) {
+            // other powder is painted with 'out'
+
+            if (relationshipMaterial != relationship.outMaterial) {
+                pg.erasePixel(relationshipX, relationshipY);
+                placePowder(relationshipX, relationshipY, relationship.outMaterial);
+            }
+        }
+
+        if (relationship.byproductMaterial != PowderGrid.EMPTY) {
+            // left in the cell the reaction freed up, see Registry.RelationshipEntry
+            if (!pg.isPowderAt(x, y)) {
+                placePowder(x, y, relationship.byproductMaterial);
+            } else if (!pg.isPowderAt(relationshipX, relationshipY)) {
+                placePowder(relationshipX, relationshipY, relationship.byproductMaterial);
+            }
+        }
+    }
+
+    /**
+     * Pick the neighbor a powder reacts with this tick, trying below, above, left and right in
+     * that order.
+     * <p>
+     * Each touching pair is decided from one side only, so a reaction is rolled for once per pair
+     * per tick: from the cell of the relationship's first powder, or for a powder reacting with
+     * itself from the upper or left cell of the pair. The other cell skips the relationship, as do
+     * cells whose catalyst isn't around. Cells that lose their roll are kept on the reactive
+     * boundary so they get another chance next tick.
+     * @param x X position
+     * @param y Y position
+     * @param material The material id of the powder
+     * @param neighbors Its 4 direct neighbors
+     * @param neighborBits The neighbors as a bitmask, like {@link Registry#getReactivePartners}
+     * @param rand The RNG to draw from
+     * @return the direction of the neighbor to react with, or -1 for none
+     */
+    private int findReaction(int x, int y, short material, short[] neighbors, long neighborBits, SimRandom rand) {
+        for (int direction : REACTION_ORDER) {
+            Registry.RelationshipEntry relationship = pr.getRelationship(material, neighbors[direction]);
+            if (relationship == null) {
+                continue;
+            }
+            boolean decides = relationship.firstMaterial != relationship.secondMaterial
+                    ? material == relationship.firstMaterial
+                    : direction == PowderGrid.BELOW || direction == PowderGrid.RIGHT;
+            if (!decides) {
+                continue; // decided from the other cell of the pair
+            }
+
+            short catalyst = relationship.catalystMaterial;
+            if (catalyst != PowderGrid.EMPTY && ((neighborBits & 1L << catalyst) == 0
+                    || (neighbors[PowderGrid.ABOVE] != catalyst && neighbors[PowderGrid.BELOW] != catalyst
+                    && neighbors[PowderGrid.LEFT] != catalyst && neighbors[PowderGrid.RIGHT] != catalyst))) {
+                continue;
+            }
+            if (relationship.probability < 1 && rand.nextFloat() >= relationship.probability) {
+                pg.keepReacting(x, y);
+                continue;
+            }
+
+            return direction;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Check whether {@code powder} could swap places with the powder at {@code index}.
+     */
+    private boolean canSwapSideways(int index, Material powder) {
+        Material sidePowder = pr.getMaterial(pg.getMaterialAt(index));
+        return pg.canDisplace(sidePowder, powder) && sidePowder.canDisplaceHorizontal;
+    }
+
+    /**
+     * Place a fresh powder on the updatable grid.
+     * @param x X position
+     * @param y Y position
+     * @param id The id of the powder to place
+     */
+    public void placePowder(int x, int y, String id) {
+        placePowder(x, y, pr.getMaterialId(id));
+    }
+
+    /**
+     * Place a fresh powder on the updatable grid.
+     * @param x X position
+     * @param y Y position
+     * @param material The material id of the powder to place
+     */
+    public void placePowder(int x, int y, short material) {
+        pg.setPixel(x, y, pr.getMaterial(material));
+    }
+}
@@ -1,6 +1,7 @@
 package com.jpowder;
 
 import java.awt.Color;
+import java.awt.Dimension;
 
 /**
  * Several powder related utilities.
@@ -23,17 +24,66 @@ public final class PowderUtilities {
         return (r << 16) | (g << 8) | b;
     }
 
+    /**
+     * Pack an RGB sequence into an RGB-INT value, without validation. Channels outside of
+     * 0-255 bleed into each other, so only use this with values known to be in range.
+     * @param r Red value from 0 to 255
+     * @param g Green value from 0 to 255
+     * @param b Blue value from 0 to 255
+     * @return the packed RGB-INT value
+     */
+    public static int packColorInt(int r, int g, int b) {
+        return (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Get the red channel of an RGB-INT value.
+     * @param color The color int
+     * @return the red value from 0 to 255
+     */
+    public static int red(int color) {
+        return (color >> 16) & 0xFF;
+    }
+
+    /**
+     * Get the green channel of an RGB-INT value.
+     * @param color The color int
+     * @return the green value from 0 to 255
+     */
+    public static int green(int color) {
+        return (color >> 8) & 0xFF;
+    }
+
+    /**
+     * Get the blue channel of an RGB-INT value.
+     * @param color The color int
+     * @return the blue value from 0 to 255
+     */
+    public static int blue(int color) {
+        return color & 0xFF;
+    }
+
+    /**
+     * Scale every channel of an RGB-INT value, clamping the result.
+     * @param color The color int to scale
+     * @param factor The factor to scale each channel by
+     * @return the scaled color int
+     */
+    public static int scaleColorInt(int color, float factor) {
+        int r = (int) Math.min(Math.max(0, red(color)*factor), 255);
+        int g = (int) Math.min(Math.max(0, green(color)*factor), 255);
+        int b = (int) Math.min(Math.max(0, blue(color)*factor), 255);
+
+        return packColorInt(r, g, b);
+    }
+
     /**
      * Convert an RGB-INT sequence into an RGB AWT Color object.
      * @param color The color int to revert
      * @return an AWT Color object
      */
     public static Color colorIntToRGB(int color) {
-        int r = (color >> 16) & 0xFF;
-        int g = (color >> 8) & 0xFF;
-        int b = color & 0xFF;
-
-        return new Color(r, g, b);
+        return new Color(red(color), green(color), blue(color));
     }
 
     /**
@@ -42,15 +92,11 @@ public final class PowderUtilities {
      * @return the inverted color int
      */
     public static int invertColorInt(int color) {
-        int r = (color >> 16) & 0xFF;
-        int g = (color >> 8) & 0xFF;
-        int b = color & 0xFF;
+        int ir = enhanceContrast(255 - red(color));
+        int ig = enhanceContrast(255 - green(color));
+        int ib = enhanceContrast(255 - blue(color));
 
-        int ir = enhanceContrast(255 - r);
-        int ig = enhanceContrast(255 - g);
-        int ib = enhanceContrast(255 - b);
-
-        return (ir << 16) | (ig << 8) | ib;
+        return packColorInt(ir, ig, ib);
     }
     private static int enhanceContrast(int value) {
         if (value < 128) {
@@ -59,4 +105,19 @@ public final class PowderUtilities {
             return Math.min(255, value + 30); // Brighten light values
         }
     }
+
+    /**
+     * Parse a {@code <width>x<height>} size, e.g. {@code 512x256}, as given to the
+     * {@code --grid=} and {@code --window=} options.
+     * @param size The size to parse
+     * @return the parsed size
+     * @throws IllegalArgumentException if the size isn't two numbers separated by an x
+     */
+    public static Dimension parseSize(String size) throws IllegalArgumentException {
+        String[] parts = size.toLowerCase().split("x");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid size '" + size + "', expected <width>x<height>");
+        }
+        return new Dimension(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+    }
 }
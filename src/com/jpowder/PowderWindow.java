@@ -12,18 +12,32 @@ import java.awt.image.DataBufferInt;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Objects;
-import java.util.Random;
-import java.util.stream.Stream;
 
-public class PowderWindow extends Canvas implements Runnable, MouseListener, KeyListener {
-    private final Random rand = new Random();
+public class PowderWindow extends Canvas implements Runnable, MouseListener, MouseMotionListener, KeyListener {
+    private static final int EMPTY_COLOR = PowderUtilities.packColorInt(10, 10, 10);
+    private static final int CURSOR_COLOR = PowderUtilities.packColorInt(183, 183, 183);
+    private static final int ERASE_CURSOR_COLOR = PowderUtilities.packColorInt(255, 0, 0);
+    private static final int MAX_RENDER_SCALE = 16;
+
     private final JFrame frame;
+    // one texel per renderScale x renderScale block of cells, scaled onto the screen when drawn
     private BufferedImage image;
-    private int[] lastPixels;
     private int[] pixels;
+    private int renderScale = 1;
+    // render scale picked by adaptive mode, on top of what the window size calls for
+    private int adaptiveScale = 1;
+    private double averageRenderNanos = 0;
+    private int framesSinceAdapt = 0;
+    private long lastRenderNanos;
+    // set when the whole screen has to be drawn again, e.g. after a resize
+    private volatile boolean fullRedraw = true;
+    // grid cell the cursor was last drawn over, -1 for none
+    private int lastCursor = -1;
+    private int lastCursorColor;
     public boolean webMode = false;
     public boolean reduGraphicsMode = false;
     public boolean allFramesMode = false;
+    public boolean adaptiveMode = false;
 
     private int width;
     private int height;
@@ -32,15 +46,25 @@ public class PowderWindow extends Canvas implements Runnable, MouseListener, Key
     private final int powderItemHeight;
     private static ArrayList<JButton> toolboxButtons;
 
-    private boolean rainbow = false;
     private final PowderGrid pg;
     private final Registry pr;
-    private static String selectedPowder = "water_fluid";
-    private boolean erase = false;
-    private boolean paused = false;
-
-    private boolean mouseDown = false;
-    private Point mousePos;
+    private final PowderSimulation sim;
+    private final SnapshotBuffer snapshots;
+    private final SimulationLoop loop;
+    private static volatile String selectedPowder = "water_fluid";
+    private volatile boolean erase = false;
+    private volatile int brushRadius = 1;
+    private volatile PowderGrid.BrushShape brushShape = PowderGrid.BrushShape.CIRCLE;
+
+    // mouse position on the canvas, null while outside of it
+    private volatile Point mousePos;
+    // the held brush, only touched on the simulation thread
+    private boolean brushDown = false;
+    private int brushX;
+    private int brushY;
+    private Material brushMaterial; // null while erasing
+    private int brushSize;
+    private PowderGrid.BrushShape brushShapeHeld;
 
     private final int fps = 60;
 
@@ -51,13 +75,17 @@ public class PowderWindow extends Canvas implements Runnable, MouseListener, Key
     float renderXOffset;
     float renderYOffset;
 
-    public PowderWindow(int width, int height) {
+    public PowderWindow(int width, int height, int gridWidth, int gridHeight) {
         this.width = width;
         this.height = height;
         this.setBackground(new Color(0, 0, 0));
         frame = new JFrame("jPowder - Simulation");
-        pg = new PowderGrid(50, 50);
+        pg = new PowderGrid(gridWidth, gridHeight);
         pr = new Registry();
+        sim = new PowderSimulation(pg, pr);
+        snapshots = new SnapshotBuffer(pg);
+        loop = new SimulationLoop(pg, sim, snapshots);
+        loop.setInputHandler(this::handleInput);
         powderItemWidth = 150;
         powderItemHeight = 50;
 
@@ -74,6 +102,7 @@ public class PowderWindow extends Canvas implements Runnable, MouseListener, Key
         this.frame.setIconImage(img);
 
         addMouseListener(this);
+        addMouseMotionListener(this);
         addKeyListener(this);
     }
 
@@ -152,15 +181,28 @@ public class PowderWindow extends Canvas implements Runnable, MouseListener, Key
         System.out.println("Key Typed: " + e);
 
         if (e.getKeyChar() == 'g') {
-            rainbow = !rainbow;
+            loop.submit(() -> sim.rainbow = !sim.rainbow);
         } else if (e.getKeyChar() == 'e') {
             erase = !erase;
+        } else if (e.getKeyChar() == '=' || e.getKeyChar() == '+') {
+            brushRadius = Math.min(brushRadius + 1, 32);
+            System.out.println("Brush radius: " + brushRadius);
+        } else if (e.getKeyChar() == '-') {
+            brushRadius = Math.max(brushRadius - 1, 0);
+            System.out.println("Brush radius: " + brushRadius);
+        } else if (e.getKeyChar() == 'b') {
+            brushShape = brushShape == PowderGrid.BrushShape.CIRCLE ? PowderGrid.BrushShape.SQUARE : PowderGrid.BrushShape.CIRCLE;
+            System.out.println("Brush shape: " + brushShape);
         } else if (e.getKeyChar() == 'c') {
-            pg.clearGrid();
-            pg.mergeGrid();
-        } else if (e.getKeyChar() == 'f' && paused) {
-            updatePixels();
-            pg.mergeGrid();
+            loop.submit(pg::clearGrid);
+        } else if (e.getKeyChar() == 'f' && loop.isPaused()) {
+            loop.requestStep();
+        } else if (e.getKeyChar() == ']') {
+            loop.setTickRateMultiplier(loop.getTickRateMultiplier() * 2);
+            System.out.println("Tick rate: " + loop.getTickRateMultiplier() + "x");
+        } else if (e.getKeyChar() == '[') {
+            loop.setTickRateMultiplier(loop.getTickRateMultiplier() / 2);
+            System.out.println("Tick rate: " + loop.getTickRateMultiplier() + "x");
         }
     }
 
@@ -169,7 +211,7 @@ public class PowderWindow extends Canvas implements Runnable, MouseListener, Key
         System.out.println("Key Pressed: " + e);
 
          if (e.getKeyCode() == KeyEvent.VK_SPACE) {
-            paused = !paused;
+            loop.togglePaused();
         }
     }
 
@@ -185,13 +227,27 @@ public class PowderWindow extends Canvas implements Runnable, MouseListener, Key
 
     @Override
     public void mousePressed(MouseEvent e) {
-        mouseDown = true;
+        mousePos = e.getPoint();
+        Point gridPos = frameToPowderGrid(e.getX(), e.getY());
+        boolean erase = this.erase;
+        String powder = selectedPowder;
+        int radius = brushRadius;
+        PowderGrid.BrushShape shape = brushShape;
+        loop.submit(() -> {
+            brushDown = true;
+            brushX = gridPos.x;
+            brushY = gridPos.y;
+            brushMaterial = erase ? null : pr.getMaterial(pr.getMaterialId(powder));
+            brushSize = radius;
+            brushShapeHeld = shape;
+            applyBrush();
+        });
         System.out.println("Mouse Pressed at (" + e.getX() + ", " + e.getY() + ")");
     }
 
     @Override
     public void mouseReleased(MouseEvent e) {
-        mouseDown = false;
+        loop.submit(() -> brushDown = false);
         System.out.println("Mouse Released at (" + e.getX() + ", " + e.getY() + ")");
     }
 
@@ -199,13 +255,55 @@ public class PowderWindow extends Canvas implements Runnable, MouseListener, Key
     public void mouseEntered(MouseEvent e) { }
 
     @Override
-    public void mouseExited(MouseEvent e) { }
+    public void mouseExited(MouseEvent e) {
+        mousePos = null;
+    }
+
+    // MouseMotionListener methods
+    @Override
+    public void mouseDragged(MouseEvent e) {
+        mousePos = e.getPoint();
+        Point gridPos = frameToPowderGrid(e.getX(), e.getY());
+        // paint every cell the drag passes over, not just where the brush is at the next tick
+        loop.submit(() -> {
+            if (brushDown) {
+                pg.drawLine(brushX, brushY, gridPos.x, gridPos.y, brushSize, brushShapeHeld, brushMaterial, brushMaterial == null);
+            }
+            brushX = gridPos.x;
+            brushY = gridPos.y;
+        });
+    }
+
+    @Override
+    public void mouseMoved(MouseEvent e) {
+        mousePos = e.getPoint();
+    }
+
+    /**
+     * Keep applying the held brush. Runs on the simulation thread, see
+     * {@link SimulationLoop#setInputHandler(Runnable)}.
+     */
+    private void handleInput() {
+        if (brushDown) {
+            applyBrush();
+        }
+    }
+
+    private void applyBrush() {
+        // powder only goes into empty cells, erasing clears everything
+        pg.fillBrush(brushX, brushY, brushSize, brushShapeHeld, brushMaterial, brushMaterial == null);
+    }
 
+    /**
+     * The render loop. The simulation runs separately on the {@link SimulationLoop}, so a slow
+     * frame doesn't slow the simulation down.
+     */
     public void run() {
-        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        createImage();
+        long frameNanos = 1_000_000_000L / fps;
 
         while (true) {
-            long renderStart = System.currentTimeMillis();
+            long renderStart = System.nanoTime();
 
             int newWidth = getWidth();
             int newHeight = getHeight();
@@ -213,7 +311,7 @@ public class PowderWindow extends Canvas implements Runnable, MouseListener, Key
                 height = newHeight;
                 width = newWidth;
 
-                createImage();
+                fullRedraw = true;
             }
 
             // no reason to hand focus over to other parts of the app
@@ -221,8 +319,6 @@ public class PowderWindow extends Canvas implements Runnable, MouseListener, Key
                 requestFocus();
             }
 
-            mousePos = frame.getMousePosition();
-
             // Calculate the pixel size based on both the window's width and height using floating-point arithmetic
             pixelSizeByWidth = (float) width / pg.getWidth();
             pixelSizeByHeight = (float) height / pg.getHeight();
@@ -234,276 +330,61 @@ public class PowderWindow extends Canvas implements Runnable, MouseListener, Key
             renderXOffset = (width - (pixelSize * pg.getWidth())) / 2.0f;
             renderYOffset = (height - (pixelSize * pg.getHeight())) / 2.0f;
 
-            if (mouseDown && mousePos != null) {
-
-                Point transPos = frameToPowderGrid(mousePos.x, mousePos.y);
-
-                if (!pg.isPowderAt(transPos.x, transPos.y) && !erase) {
-                    BasePowder newPowder = pr.createInstance(selectedPowder);
-                    pg.setPixel(transPos.x, transPos.y, newPowder);
-                    pg.mergeGrid(); // make sure the grid reflects our changes
-                } else if (pg.isPowderAt(transPos.x, transPos.y) && erase) {
-                    pg.erasePixel(transPos.x, transPos.y);
-                    pg.mergeGrid(); // make sure the grid reflects our changes
-                }
+            // there's no point in more texels than the grid covers screen pixels
+            int scale = Math.min(Math.max(Math.max(1, (int) (1 / pixelSize)), adaptiveScale), MAX_RENDER_SCALE);
+            if (scale != renderScale) {
+                renderScale = scale;
+                createImage();
             }
 
-            if (!paused) {
-                updatePixels();
-//            pg.refreshAllPixels();
-                pg.mergeGrid();
-            }
             render();
+            if (adaptiveMode) {
+                adaptRenderScale(frameNanos);
+            }
 
-            long renderEnd = System.currentTimeMillis();
-            long sleepTime = 1000/fps - (renderEnd-renderStart);
+            long sleepTime = frameNanos - (System.nanoTime() - renderStart);
 
             try {
                 if (sleepTime > 0) {
                     //noinspection BusyWait
-                    Thread.sleep(sleepTime); // Sleep for ~60 FPS
+                    Thread.sleep(sleepTime / 1_000_000, (int) (sleepTime % 1_000_000)); // Sleep for ~60 FPS
                 }
             } catch (InterruptedException e) {
                 //noinspection CallToPrintStackTrace
                 e.printStackTrace();
+                loop.stop();
                 break;
             }
         }
     }
 
     private void createImage() {
-        image = null;
-        pixels = null;
-        System.gc();
-
-        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image = new BufferedImage((pg.getWidth() + renderScale-1) / renderScale, (pg.getHeight() + renderScale-1) / renderScale,
+                BufferedImage.TYPE_INT_RGB);
         pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
-        lastPixels = new int[pixels.length];
+        fullRedraw = true;
+        lastCursor = -1;
     }
 
     /**
-     * Update all pixels on the grid.
-     * <p>
-     * Iterates over the main pixel grid, but applies updates to the updatable grid
-     * while using its values to calculate positions.
+     * Coarsen the render scale while drawing takes more than half of the frame budget (leaving
+     * the rest for the simulation), and refine it again once there's plenty of time to spare.
      */
-    private void updatePixels() {
-        for (BasePowder gridPixel : pg.getPixels()) {
-            if (gridPixel == null || gridPixel.erased) { // no pixel here
-                continue;
-            }
-
-            if (rainbow) {
-                gridPixel.color = (int) (Math.random() * 0xffffff);
-            }
-
-            gridPixel.calculateNextPos(.5f);
-            int new_y = (int) (gridPixel.y + gridPixel.velocity);
-            int new_x = gridPixel.x;
-
-            if (gridPixel.shift == ShiftRule.SLIP || gridPixel.shift == ShiftRule.STICK) {
-                shiftNaturally: {
-                    if (pg.hasNeighborBelow(gridPixel)) {
-                        BasePowder belowPixel = pg.getUpdatablePixels()[pg.findTrueLocation(gridPixel.x, gridPixel.y+1)];
-                        String gridID = pr.getID(gridPixel);
-                        String belowID = pr.getID(belowPixel);
-
-                        gridPixel.velocity = 0; // Stay in place if there's a neighbor below
-                        new_y = gridPixel.y;
-
-                        if (gridPixel.shift == ShiftRule.STICK && !Objects.equals(gridID, belowID)) {
-                            break shiftNaturally; // dont shift, but dont block float shifting
-                        }
-
-                        boolean canMoveLeft = (!pg.isPowderAt(gridPixel.x-1, gridPixel.y+1) &&
-                                !pg.isPowderAt(gridPixel.x-1, gridPixel.y));
-                        boolean canMoveRight = (!pg.isPowderAt(gridPixel.x+1, gridPixel.y+1) &&
-                                !pg.isPowderAt(gridPixel.x+1, gridPixel.y));
-
-                        if (canMoveLeft && canMoveRight) {
-                            new_x += rand.nextBoolean() ? -1 : 1;
-                        } else if (canMoveLeft) {
-                            new_x -= 1;
-                        } else if (canMoveRight) {
-                            new_x += 1;
-                        }
-                    }
-                }
-            } else if (gridPixel.shift == ShiftRule.SOLID) {
-                gridPixel.velocity = 0;
-                new_y = gridPixel.y;
-            } else if (gridPixel.shift == ShiftRule.FLUID)  {
-                if (pg.hasNeighborBelow(gridPixel) || gridPixel.y >= pg.getHeight()-1) {
-                    gridPixel.velocity = 0;
-                    new_y = gridPixel.y;
-
-                    boolean canMoveLeft = (!pg.isPowderAt(gridPixel.x-1, gridPixel.y));
-                    boolean canMoveRight = (!pg.isPowderAt(gridPixel.x+1, gridPixel.y));
-                    boolean shouldMove = rand.nextBoolean();
-
-                    if (!shouldMove) {
-                        assert true; // do nothing
-                    } else if (canMoveLeft && canMoveRight) {
-                        new_x += rand.nextBoolean() ? -1 : 1;
-                    } else if (canMoveLeft) {
-                        new_x -= 1;
-                    } else if (canMoveRight) {
-                        new_x += 1;
-                    }
-                }
-            } else if (gridPixel instanceof BaseGas) {
-                if (rand.nextInt(((BaseGas) gridPixel).floatMax) >= ((BaseGas) gridPixel).floatNeeded) {
-                    new_y = (int) (gridPixel.y - gridPixel.velocity);
-                } else if (rand.nextInt(((BaseGas) gridPixel).sinkMax) >= ((BaseGas) gridPixel).sinkNeeded) {
-                    new_y = (int) (gridPixel.y + gridPixel.velocity);
-                } else {
-                    new_y = gridPixel.y;
-                }
-
-                if (pg.hasNeighborAbove(gridPixel)) {
-                    new_y = gridPixel.y;
-                }
-
-                boolean canMoveLeft = (!pg.isPowderAt(gridPixel.x-1, new_y));
-                boolean canMoveRight = (!pg.isPowderAt(gridPixel.x+1, new_y));
-                boolean shouldMove = (rand.nextInt(((BaseGas) gridPixel).floatMax) >= ((BaseGas) gridPixel).shiftNeeded);
-
-                if (!shouldMove) {
-                    assert true; // do nothing
-                } else if (canMoveLeft && canMoveRight) {
-                    new_x += rand.nextBoolean() ? -1 : 1;
-                } else if (canMoveLeft) {
-                    new_x -= 1;
-                } else if (canMoveRight) {
-                    new_x += 1;
-                }
-                gridPixel.life -= 1;
-
-                // darken the gas based on its life
-                Color originalColor = PowderUtilities.colorIntToRGB(gridPixel.originalColor);
-                int shiftedRed = (int) Math.min(Math.max(0, originalColor.getRed()*((float) gridPixel.life/gridPixel.originalLife)), 255);
-                int shiftedGreen = (int) Math.min(Math.max(0, originalColor.getGreen()*((float) gridPixel.life/gridPixel.originalLife)), 255);
-                int shiftedBlue = (int) Math.min(Math.max(0, originalColor.getBlue()*((float) gridPixel.life/gridPixel.originalLife)), 255);
-
-                gridPixel.color = PowderUtilities.rgbToColorInt(shiftedRed, shiftedGreen, shiftedBlue);
-
-                if (gridPixel.life <= 1) {
-                    pg.erasePixel(gridPixel.x, gridPixel.y);
-                    continue;
-                }
-            }
-
-            // float shift, powder can move pixels of a lower fIndex that itself
-            // relationship check
-            PowderGrid.Surrounding surr = pg.getSurrounding(gridPixel); // get all surrounding pixels
-            if (!Stream.of(surr).allMatch(Objects::isNull)) {
-                BasePowder belowPixel = surr.below;
-                BasePowder abovePixel = surr.above;
-                BasePowder leftPixel = surr.left;
-                BasePowder rightPixel = surr.right;
-
-                // get the id's of the pixels for relationship checking
-                String gridID = pr.getID(gridPixel); // current pixel
-                String aboveID = pr.getID(abovePixel);
-                String belowID = pr.getID(belowPixel);
-                String leftID = pr.getID(leftPixel);
-                String rightID = pr.getID(rightPixel);
-
-                // select a direction to check against
-                Registry.RelationshipEntry relationship;
-                BasePowder relationshipWith;
-                String relationshipID;
-                if (pr.hasRelationship(gridID, belowID)) {
-                    relationship = pr.getRelationship(gridID, belowID);
-                    relationshipWith = belowPixel;
-                    relationshipID = belowID;
-                } else if (pr.hasRelationship(gridID, aboveID)) {
-                    relationship = pr.getRelationship(gridID, aboveID);
-                    relationshipWith = abovePixel;
-                    relationshipID = aboveID;
-                } else if (pr.hasRelationship(gridID, leftID)) {
-                    relationship = pr.getRelationship(gridID, leftID);
-                    relationshipWith = leftPixel;
-                    relationshipID = leftID;
-                } else if (pr.hasRelationship(gridID, rightID)) {
-                    relationship = pr.getRelationship(gridID, rightID);
-                    relationshipWith = rightPixel;
-                    relationshipID = rightID;
-                } else {
-                    relationship = null;
-                    relationshipWith = null;
-                    relationshipID = null;
-                }
-
-                if (relationship != null && relationshipWith != null) {
-                    if (relationship.relationshipType == RelationshipType.MERGE) {
-                        // combine two powders into 'out'
-
-                        new_y = relationshipWith.y;
-                        new_x = relationshipWith.x;
-
-                        pg.erasePixel(gridPixel.x, gridPixel.y);
-                        pg.erasePixel(new_x, new_y);
-
-                        pg.setPixel(new_x, new_y, pr.createInstance(relationship.out));
-                        continue;
-                    } else if (relationship.relationshipType == RelationshipType.CONSUME) {
-                        // 'out' consumes the other powder
-
-                        if (Objects.equals(gridID, relationship.out)) {
-                            pg.erasePixel(relationshipWith.x, relationshipWith.y);
-                        } else {
-                            pg.erasePixel(gridPixel.x, gridPixel.y);
-                        }
-                        continue;
-                    } else if (relationship.relationshipType == RelationshipType.PAINT) {
-                        // other powder is painted with 'out'
-
-                        if (!Objects.equals(relationshipID, relationship.out)) {
-                            pg.erasePixel(relationshipWith.x, relationshipWith.y);
-                            pg.setPixel(relationshipWith.x, relationshipWith.y, pr.createInstance(relationship.out));
-                        }
-                    }
-                 } else if (pg.canDisplace(belowPixel, gridPixel)) {
-                    new_y = gridPixel.y+1;
-
-                    pg.movePixel(new_x, new_y, gridPixel);
-                    continue;
-                }
-            }
-
-            boolean shouldMoveLeft = rand.nextBoolean();
-            if (pg.isPowderAt(gridPixel.x-1, gridPixel.y) && shouldMoveLeft) {
-                BasePowder sidePixel = pg.getUpdatablePixels()[pg.findTrueLocation(gridPixel.x-1, gridPixel.y)];
-                if (pg.canDisplace(sidePixel, gridPixel) && sidePixel.canDisplaceHorizontal && rand.nextBoolean()) {
-                    new_x = gridPixel.x-1;
-                    pg.movePixel(new_x, gridPixel.y, gridPixel);
-                    continue;
-                }
-            } else if (pg.isPowderAt(gridPixel.x+1, gridPixel.y)) {
-                BasePowder sidePixel = pg.getUpdatablePixels()[pg.findTrueLocation(gridPixel.x+1, gridPixel.y)];
-                if (pg.canDisplace(sidePixel, gridPixel) && sidePixel.canDisplaceHorizontal && rand.nextBoolean()) {
-                    new_x = gridPixel.x+1;
-                    pg.movePixel(new_x, gridPixel.y, gridPixel);
-                    continue;
-                }
-            }
-
-            // Ensure new_x and new_y are within bounds
-            if (new_x >= pg.getWidth()) {
-                new_x = pg.getWidth() - 2;
-            } else if (new_x < 0) {
-                new_x = 0;
-            }
-
-            if (new_y >= pg.getHeight()) {
-                new_y = pg.getHeight();
-            } else if (new_y < 0) {
-                new_y = 0;
-            }
+    private void adaptRenderScale(long frameNanos) {
+        averageRenderNanos += (lastRenderNanos - averageRenderNanos) * 0.1;
+        if (++framesSinceAdapt < fps/2) {
+            return; // give the average time to settle
+        }
 
-            pg.movePixel(new_x, new_y, gridPixel); // we should update the grid, too
+        if (averageRenderNanos > frameNanos / 2 && adaptiveScale < MAX_RENDER_SCALE) {
+            adaptiveScale *= 2;
+        } else if (averageRenderNanos < frameNanos / 8 && adaptiveScale > 1) {
+            adaptiveScale /= 2;
+        } else {
+            return;
         }
+        framesSinceAdapt = 0;
+        System.out.println("Adaptive render scale: " + adaptiveScale);
     }
 
     private Point frameToPowderGrid(int x, int y) {
@@ -518,82 +399,153 @@ public class PowderWindow extends Canvas implements Runnable, MouseListener, Key
         return new Point(adjustedX, adjustedY);
     }
 
+    @Override
+    public void paint(Graphics g) {
+        fullRedraw = true; // the system wiped (part of) the canvas
+    }
+
+    /**
+     * Draw the newest snapshot published by the simulation.
+     * <p>
+     * Only cells the snapshot reports as damaged since the last frame are copied into the image,
+     * and a frame where nothing changed isn't drawn at all. In reduced graphics mode the canvas is
+     * single buffered, so only the damaged areas are drawn to the screen as well.
+     */
     private void render() {
         BufferStrategy bs = getBufferStrategy();
         if (bs == null) {
-            createBufferStrategy(webMode ? 1 : 3);
+            createBufferStrategy(webMode || reduGraphicsMode ? 1 : 3);
             return;
         }
-        Graphics g = bs.getDrawGraphics();
-
-        for (int gridY = 0; gridY < pg.getHeight(); gridY++) {
-            for (int gridX = 0; gridX < pg.getWidth(); gridX++) {
-                int color;
-                if (pg.getPixels()[gridY * pg.getWidth() + gridX] != null) {
-                    color = pg.getPixels()[gridY * pg.getWidth() + gridX].color;
-                } else {
-                    color = PowderUtilities.rgbToColorInt(10, 10, 10);
-                }
-
-                for (int y = 0; y < pixelSize; y++) {
-                    for (int x = 0; x < pixelSize; x++) {
-                        int px = (int) (gridX * pixelSize + x + renderXOffset);
-                        int py = (int) (gridY * pixelSize + y + renderYOffset);
-                        if (px < width && py < height && py >= 0) {
-                            pixels[py * width + px] = color;
-                        }
-                    }
+        long renderStart = System.nanoTime();
+        boolean redraw = fullRedraw || allFramesMode || bs.contentsLost();
+        fullRedraw = false;
+        int gridWidth = pg.getWidth();
+        GridSnapshot fresh = snapshots.take();
+        GridSnapshot snapshot = snapshots.current();
+
+        // bring the image up to date
+        boolean damaged = false;
+        if (redraw) {
+            updateImage(snapshot, 0, 0, gridWidth-1, pg.getHeight()-1);
+        } else if (fresh != null) {
+            for (PowderGrid.DirtyRect rect : fresh.getDamage()) {
+                if (!rect.isEmpty()) {
+                    updateImage(snapshot, rect.getMinX(), rect.getMinY(), rect.getMaxX(), rect.getMaxY());
+                    damaged = true;
                 }
             }
         }
 
         // render the cursor
+        int cursor = -1;
+        int cursorColor = erase ? ERASE_CURSOR_COLOR : CURSOR_COLOR;
+        Point mousePos = this.mousePos;
         if (mousePos != null) {
             Point gridPos = frameToPowderGrid(mousePos.x, mousePos.y);
-            // mouse position is based on the frame, not grid
-            for (int y = 0; y < pixelSize; y++) {
-                for (int x = 0; x < pixelSize; x++) {
-                    int px = (int) (gridPos.x * pixelSize + x + renderXOffset);
-                    int py = (int) (gridPos.y * pixelSize + y + renderYOffset);
-
-                    if (px < width && py < height && py >=0) {
-                        int color;
-                        if (erase) {
-                            color = PowderUtilities.rgbToColorInt(255, 0, 0);
-                        } else {
-                            color = PowderUtilities.rgbToColorInt(183, 183, 183);
-                        }
-
-                        pixels[py * width + px] = color;
-                    }
-                }
-            }
+            // mouse position is based on the canvas, not grid
+            cursor = gridPos.y * gridWidth + gridPos.x;
+        }
+        boolean cursorMoved = cursor != lastCursor || cursorColor != lastCursorColor;
+        if (cursorMoved && lastCursor != -1) {
+            // restore the texel under the old cursor from the cell it samples
+            int sampleX = (lastCursor % gridWidth) / renderScale * renderScale;
+            int sampleY = (lastCursor / gridWidth) / renderScale * renderScale;
+            updateImage(snapshot, sampleX, sampleY, sampleX, sampleY);
+        }
+        if (cursor != -1) {
+            pixels[(cursor / gridWidth / renderScale) * image.getWidth() + (cursor % gridWidth) / renderScale] = cursorColor;
         }
-
 
         // only update the screen if we've changed something
-        if (!Arrays.equals(pixels, lastPixels) || allFramesMode) {
-            if (!reduGraphicsMode) {
-                g.drawImage(image, 0, 0, width, height, null);
+        if (redraw || damaged || cursorMoved) {
+            Graphics2D g = (Graphics2D) bs.getDrawGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            if (redraw || !reduGraphicsMode) {
+                g.setColor(getBackground());
+                g.fillRect(0, 0, width, height);
+                drawCells(g, 0, 0, gridWidth-1, pg.getHeight()-1);
             } else {
-                // reduced graphics, only draw updated pixels
-                for (int y = 0; y < height; y+= (int) pixelSize+1) {
-                    for (int x = 0; x < width; x+= (int) pixelSize+1) {
-                        if (pixels[y*width+x] != lastPixels[y*width+x]) {
-                            g.setColor(new Color(pixels[y*width+x]));
-                            g.fillRect(x-5, y-5, (int) pixelSize+1, (int) pixelSize+1);
-                        }
+                // reduced graphics, only draw damaged cells
+                for (PowderGrid.DirtyRect rect : snapshot.getDamage()) {
+                    if (damaged && !rect.isEmpty()) {
+                        drawCells(g, rect.getMinX(), rect.getMinY(), rect.getMaxX(), rect.getMaxY());
                     }
                 }
+                if (cursorMoved) {
+                    if (lastCursor != -1) {
+                        drawCells(g, lastCursor % gridWidth, lastCursor / gridWidth, lastCursor % gridWidth, lastCursor / gridWidth);
+                    }
+                    if (cursor != -1) {
+                        drawCells(g, cursor % gridWidth, cursor / gridWidth, cursor % gridWidth, cursor / gridWidth);
+                    }
+                }
+            }
+            g.dispose();
+            lastRenderNanos = System.nanoTime() - renderStart; // not counting the wait for the display
+            bs.show();
+        } else {
+            lastRenderNanos = System.nanoTime() - renderStart;
+        }
+
+        lastCursor = cursor;
+        lastCursorColor = cursorColor;
+    }
+
+    /**
+     * Copy an inclusive rectangle of cells from a snapshot into the image. When the render scale
+     * is above 1, each texel takes the top left cell of its block.
+     */
+    private void updateImage(GridSnapshot snapshot, int x0, int y0, int x1, int y1) {
+        short[] gridMaterials = snapshot.getMaterials();
+        int[] gridColors = snapshot.getColors();
+        int scale = renderScale;
+        int imageWidth = image.getWidth();
+
+        // only the texels whose sampled cell lies within the rectangle
+        int texelX0 = (x0 + scale-1) / scale;
+        int texelX1 = x1 / scale;
+        for (int texelY = (y0 + scale-1) / scale; texelY <= y1 / scale; texelY++) {
+            int index = pg.findTrueLocation(texelX0 * scale, texelY * scale);
+            int pixel = texelY * imageWidth + texelX0;
+            for (int texelX = texelX0; texelX <= texelX1; texelX++, index += scale, pixel++) {
+                pixels[pixel] = gridMaterials[index] != PowderGrid.EMPTY ? gridColors[index] : EMPTY_COLOR;
             }
         }
-        lastPixels = pixels.clone();
-        g.dispose();
-        bs.show();
+    }
+
+    /**
+     * Draw the texels covering an inclusive rectangle of cells to the screen, scaled and offset to
+     * where the grid sits in the window.
+     */
+    private void drawCells(Graphics2D g, int x0, int y0, int x1, int y1) {
+        int drawX = (int) renderXOffset;
+        int drawY = (int) renderYOffset;
+        int scale = renderScale;
+        int texelX0 = x0 / scale;
+        int texelY0 = y0 / scale;
+        int texelX1 = x1 / scale + 1;
+        int texelY1 = y1 / scale + 1;
+        g.drawImage(image,
+                drawX + (int) (texelX0 * scale * pixelSize), drawY + (int) (texelY0 * scale * pixelSize),
+                drawX + (int) (Math.min(texelX1 * scale, pg.getWidth()) * pixelSize),
+                drawY + (int) (Math.min(texelY1 * scale, pg.getHeight()) * pixelSize),
+                texelX0, texelY0, texelX1, texelY1, null);
     }
 
     public static void main(String[] args) {
-        PowderWindow simulation = new PowderWindow(800, 800);
+        // the sizes are needed up front, everything else is applied to the window below
+        Dimension windowSize = new Dimension(800, 800);
+        Dimension gridSize = new Dimension(50, 50);
+        for (String arg : args) {
+            if (arg.startsWith("--window=")) {
+                windowSize = PowderUtilities.parseSize(arg.substring("--window=".length()));
+            } else if (arg.startsWith("--grid=")) {
+                gridSize = PowderUtilities.parseSize(arg.substring("--grid=".length()));
+            }
+        }
+        PowderWindow simulation = new PowderWindow(windowSize.width, windowSize.height, gridSize.width, gridSize.height);
+        System.out.println("Grid size: " + gridSize.width + "x" + gridSize.height);
 
         for (String arg : Arrays.toString(args).split(",")) {
             arg = arg.trim();
@@ -610,35 +562,48 @@ public class PowderWindow extends Canvas implements Runnable, MouseListener, Key
                     System.out.println("Enabling reduced graphics. Expect visual issues.");
                     simulation.reduGraphicsMode = true;
                     break;
+                case "-parallel":
+                case "--parallel":
+                    System.out.println("Running the simulation across all cores.");
+                    simulation.sim.parallelMode = true;
+                    break;
                 case "-allframes":
                 case "--allframes":
                     System.out.println("Rendering all frames...");
                     simulation.allFramesMode = true;
                     break;
+                case "-adaptive":
+                case "--adaptive":
+                    System.out.println("Adapting tick rate and render quality to the frame budget.");
+                    simulation.adaptiveMode = true;
+                    simulation.loop.setAdaptive(true);
+                    break;
+                default:
+                    if (arg.startsWith("--seed=")) {
+                        simulation.sim.setSeed(Long.parseLong(arg.substring("--seed=".length())));
+                    } else if (arg.startsWith("--tickrate=")) {
+                        simulation.loop.setTickRateMultiplier(Double.parseDouble(arg.substring("--tickrate=".length())));
+                        System.out.println("Tick rate: " + simulation.loop.getTickRateMultiplier() + "x");
+                    } else if (arg.startsWith("--fastforward=")) {
+                        simulation.loop.setFastForward(Integer.parseInt(arg.substring("--fastforward=".length())));
+                        System.out.println("Fast forwarding " + simulation.loop.getFastForward() + " ticks per frame.");
+                    } else if (arg.startsWith("--pressure=")) {
+                        simulation.sim.setPressureInterval(Integer.parseInt(arg.substring("--pressure=".length())));
+                        System.out.println("Levelling fluids every " + simulation.sim.getPressureInterval() + " ticks.");
+                    }
+                    break;
             }
         }
+        System.out.println("Simulation seed: " + simulation.sim.getSeed());
 
-        // register powders
-
+        // register powders and their relationships
         System.out.println("registering powders...");
-        simulation.pr.register(new SandPowder(), "sand_powder", "Sand");
-        simulation.pr.register(new WetSandPowder(), "wet_sand_powder", "Moist Sand");
-        simulation.pr.register(new RockPowder(), "rock_powder", "Rock");
-        simulation.pr.register(new WaterFluid(), "water_fluid", "Water");
-        simulation.pr.register(new FireGas(), "fire_gas", "Fire");
-        simulation.pr.register(new WoodPowder(), "wood_powder", "Wood");
-        simulation.pr.register(new HydrogenFluid(), "hydrogen_fluid", "Hydrogen");
-
-        // register relationships
-        System.out.println("registering relationships...");
-        simulation.pr.registerRelationship("sand_powder", "water_fluid", "wet_sand_powder", RelationshipType.MERGE);
-        simulation.pr.registerRelationship("fire_gas", "water_fluid", "water_fluid", RelationshipType.CONSUME);
-        simulation.pr.registerRelationship("fire_gas", "wood_powder", "fire_gas", RelationshipType.PAINT);
-        simulation.pr.registerRelationship("fire_gas", "hydrogen_fluid", "fire_gas", RelationshipType.PAINT);
+        DefaultMaterials.register(simulation.pr);
 
         simulation.createToolbar();
         System.out.println("starting simulation! (" + simulation.fps + " FPS)");
-        new Thread(simulation).start();
+        new Thread(simulation.loop, "simulation").start();
+        new Thread(simulation, "render").start();
 //        new Thread(simulation::mouseLoop).start();
     }
 }
@@ -0,0 +1,78 @@
+package com.jpowder;
+
+/**
+ * Fast, seedable RNG for simulation decisions.
+ * <p>
+ * Based on SplitMix64. It isn't thread safe, so every worker owns its own instance. Coin flips
+ * are served from a cached 64-bit draw, so one draw covers 64 calls to {@link #nextBoolean()}.
+ */
+public final class SimRandom {
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+    private long bits;
+    private int bitsLeft;
+
+    public SimRandom(long seed) {
+        setSeed(seed);
+    }
+
+    /**
+     * Reset the generator, dropping any cached bits.
+     * @param seed The new seed
+     */
+    public void setSeed(long seed) {
+        state = seed;
+        bits = 0;
+        bitsLeft = 0;
+    }
+
+    /**
+     * Mix a value into a well distributed 64-bit hash, e.g. to derive a seed from several inputs.
+     * @param z The value to mix
+     * @return the mixed value
+     */
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix(state);
+    }
+
+    public int nextInt() {
+        return (int) (nextLong() >>> 32);
+    }
+
+    /**
+     * Get a random int between 0 (inclusive) and {@code bound} (exclusive).
+     * @param bound The upper bound, must be positive
+     * @return the random int
+     */
+    public int nextInt(int bound) {
+        // multiply-shift, the bias is negligible for the small bounds used by the simulation
+        return (int) (((nextLong() >>> 32) * bound) >>> 32);
+    }
+
+    /**
+     * Get a random float between 0 (inclusive) and 1 (exclusive).
+     */
+    public float nextFloat() {
+        return (nextLong() >>> 40) * 0x1.0p-24f;
+    }
+
+    public boolean nextBoolean() {
+        if (bitsLeft == 0) {
+            bits = nextLong();
+            bitsLeft = 64;
+        }
+
+        boolean bit = (bits & 1) != 0;
+        bits >>>= 1;
+        bitsLeft--;
+        return bit;
+    }
+}
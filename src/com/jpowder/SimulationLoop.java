@@ -0,0 +1,203 @@
+package com.jpowder;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a {@link PowderSimulation} on its own thread, independently of rendering.
+ * <p>
+ * Ticks run on a fixed timestep: real time is accumulated with {@link System#nanoTime()} and
+ * spent one tick at a time, so the simulation runs at the same speed no matter how long frames
+ * take to draw. After each step the merged grid is published to a {@link SnapshotBuffer} for the
+ * renderer to pick up.
+ * <p>
+ * Other threads never touch the grid directly. They {@link #submit(Command) submit} commands,
+ * which the loop drains in one batch at every tick boundary.
+ */
+public class SimulationLoop implements Runnable {
+    /**
+     * Ticks per second at a tick rate multiplier of 1.
+     */
+    public static final int TICK_RATE = 60;
+    // ticks run back to back at most before the loop stops trying to catch up
+    private static final int MAX_CATCH_UP_TICKS = 8;
+
+    private final PowderGrid pg;
+    private final PowderSimulation sim;
+    private final SnapshotBuffer snapshots;
+
+    private volatile double tickRateMultiplier = 1.0;
+    private volatile int fastForward = 0;
+    private volatile boolean paused = false;
+    private volatile boolean running = true;
+    private volatile boolean adaptive = false;
+    // running average of how long a tick takes, only touched by the loop
+    private double averageTickNanos = 0;
+    // lock-free, many threads submit while only the loop polls
+    private final ConcurrentLinkedQueue<Command> commands = new ConcurrentLinkedQueue<>();
+    private volatile Runnable inputHandler;
+
+    /**
+     * A change to the simulation requested from another thread.
+     */
+    @FunctionalInterface
+    public interface Command {
+        /**
+         * Apply the change. Runs on the simulation thread, between ticks.
+         */
+        void apply();
+    }
+
+    public SimulationLoop(PowderGrid pg, PowderSimulation sim, SnapshotBuffer snapshots) {
+        this.pg = pg;
+        this.sim = sim;
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Set how much faster (or slower) than {@link #TICK_RATE} the simulation runs.
+     * @param multiplier The tick rate multiplier, must be positive
+     * @throws IllegalArgumentException if the multiplier isn't positive
+     */
+    public void setTickRateMultiplier(double multiplier) throws IllegalArgumentException {
+        if (!(multiplier > 0)) {
+            throw new IllegalArgumentException("Tick rate multiplier must be positive, got " + multiplier);
+        }
+        tickRateMultiplier = multiplier;
+    }
+    public double getTickRateMultiplier() {
+        return tickRateMultiplier;
+    }
+
+    /**
+     * Run a fixed number of ticks per displayed frame instead of following real time.
+     * <p>
+     * The loop runs {@code ticks} ticks as fast as it can, publishes, and waits for the renderer to
+     * take the snapshot before running the next batch.
+     * @param ticks Ticks per frame, or 0 to follow the tick rate again
+     */
+    public void setFastForward(int ticks) {
+        fastForward = Math.max(0, ticks);
+    }
+    public int getFastForward() {
+        return fastForward;
+    }
+
+    /**
+     * In adaptive mode, the tick rate is lowered to what the machine can actually sustain
+     * instead of bursting to catch up, which keeps the time between published frames even and
+     * leaves CPU time for rendering.
+     * @param adaptive Whether to adapt the tick rate
+     */
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Queue a command to be applied on the simulation thread at the next tick boundary.
+     * Safe to call from any thread.
+     * @param command The command to apply
+     */
+    public void submit(Command command) {
+        commands.add(command);
+    }
+
+    /**
+     * Pause or resume the simulation, at the next tick boundary.
+     */
+    public void togglePaused() {
+        submit(() -> paused = !paused);
+    }
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * Run a single tick at the next tick boundary, if the simulation is paused by then.
+     */
+    public void requestStep() {
+        submit(() -> {
+            if (paused) {
+                sim.updatePixels();
+            }
+        });
+    }
+
+    /**
+     * Set a callback run on the simulation thread after the commands of every step, for input
+     * that keeps applying while it's held, like a brush.
+     * @param inputHandler The callback, or null for none
+     */
+    public void setInputHandler(Runnable inputHandler) {
+        this.inputHandler = inputHandler;
+    }
+
+    /**
+     * Stop the loop after the current step.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    public void run() {
+        long last = System.nanoTime();
+        long accumulator = 0;
+
+        while (running) {
+            long now = System.nanoTime();
+            accumulator += now - last;
+            last = now;
+            long tickNanos = (long) (1_000_000_000L / (TICK_RATE * tickRateMultiplier));
+            if (adaptive) {
+                tickNanos = Math.max(tickNanos, (long) (averageTickNanos * 1.25)); // leave some headroom
+            }
+
+            for (Command command = commands.poll(); command != null; command = commands.poll()) {
+                command.apply();
+            }
+            Runnable input = inputHandler;
+            if (input != null) {
+                input.run();
+            }
+
+            int ticksPerFrame = fastForward;
+            if (paused) {
+                accumulator = 0;
+            } else if (ticksPerFrame > 0) {
+                accumulator = 0;
+                for (int i = 0; i < ticksPerFrame; i++) {
+                    tick();
+                }
+            } else {
+                for (int i = 0; i < MAX_CATCH_UP_TICKS && accumulator >= tickNanos; i++) {
+                    tick();
+                    accumulator -= tickNanos;
+                }
+                if (accumulator >= tickNanos) {
+                    accumulator = 0; // too far behind, drop the backlog instead of spiralling
+                }
+            }
+
+            pg.mergeGrid();
+            snapshots.publish(sim.getTick());
+
+            if (ticksPerFrame > 0 && !paused) {
+                // wait for the renderer to show this batch before running the next one
+                while (running && snapshots.hasFresh()) {
+                    LockSupport.parkNanos(100_000);
+                }
+            } else {
+                LockSupport.parkNanos(Math.max(0, tickNanos - accumulator));
+            }
+        }
+    }
+
+    private void tick() {
+        long start = System.nanoTime();
+        sim.updatePixels();
+        averageTickNanos += (System.nanoTime() - start - averageTickNanos) * 0.1;
+    }
+}
@@ -0,0 +1,147 @@
+package com.jpowder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer of {@link GridSnapshot}s, handing the merged grid from one writer
+ * thread (the simulation) to one reader thread (the renderer).
+ * <p>
+ * The writer fills its own snapshot and swaps it into the middle slot; the reader swaps its
+ * snapshot out for the middle one whenever a fresh one is waiting. Neither side ever blocks, and
+ * the writer never touches the snapshot the reader holds. Only cells that changed since a snapshot
+ * was last written are copied into it.
+ */
+public final class SnapshotBuffer {
+    // set on the middle slot while it holds a snapshot the reader hasn't taken yet
+    private static final int FRESH = 4;
+
+    private final PowderGrid pg;
+    private final GridSnapshot[] snapshots;
+    // bits 0-1: index of the middle snapshot, plus FRESH
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int writeIndex = 0; // owned by the writer
+    private int readIndex = 2; // owned by the reader
+
+    // the rest is only ever touched by the writer
+    // pending[snapshot][chunk], the cells each snapshot is missing
+    private final PowderGrid.DirtyRect[][] pending;
+    // cells changed since the last snapshot the reader is known to have taken
+    private final PowderGrid.DirtyRect[] unseen;
+    // cells changed by the current publish
+    private final PowderGrid.DirtyRect[] latest;
+
+    public SnapshotBuffer(PowderGrid pg) {
+        this.pg = pg;
+        int chunks = pg.getChunks().length;
+        snapshots = new GridSnapshot[] { new GridSnapshot(pg), new GridSnapshot(pg), new GridSnapshot(pg) };
+        pending = new PowderGrid.DirtyRect[3][chunks];
+        unseen = new PowderGrid.DirtyRect[chunks];
+        latest = new PowderGrid.DirtyRect[chunks];
+        for (int c = 0; c < chunks; c++) {
+            for (PowderGrid.DirtyRect[] rects : pending) {
+                rects[c] = new PowderGrid.DirtyRect();
+            }
+            unseen[c] = new PowderGrid.DirtyRect();
+            latest[c] = new PowderGrid.DirtyRect();
+        }
+
+        // the grid may already hold powder, so every snapshot starts out as a full copy
+        for (GridSnapshot snapshot : snapshots) {
+            System.arraycopy(pg.getMergedMaterials(), 0, snapshot.material, 0, snapshot.material.length);
+            System.arraycopy(pg.getMergedColors(), 0, snapshot.color, 0, snapshot.color.length);
+            snapshot.filled = pg.getFilledPixels();
+            snapshot.population = pg.copyPopulation(snapshot.population);
+            for (PowderGrid.Chunk chunk : pg.getChunks()) {
+                snapshot.damage[chunk.chunkY*pg.getChunksX() + chunk.chunkX].include(chunk.left, chunk.top, chunk.right, chunk.bottom);
+            }
+        }
+    }
+
+    /**
+     * Publish the merged grid, writer side. Call after {@link PowderGrid#mergeGrid()}.
+     * <p>
+     * Consumes the grid's {@link PowderGrid.Chunk#getDamaged() damage}.
+     * @param tick The simulation tick to stamp the snapshot with
+     * @return false if nothing changed since the last publish, in which case nothing is published
+     */
+    public boolean publish(long tick) {
+        PowderGrid.Chunk[] chunks = pg.getChunks();
+        boolean damaged = false;
+        for (int c = 0; c < chunks.length; c++) {
+            PowderGrid.DirtyRect rect = chunks[c].getDamaged();
+            latest[c].set(rect);
+            if (rect.isEmpty()) {
+                continue;
+            }
+
+            damaged = true;
+            for (PowderGrid.DirtyRect[] rects : pending) {
+                rects[c].include(rect.minX, rect.minY, rect.maxX, rect.maxY);
+            }
+            unseen[c].include(rect.minX, rect.minY, rect.maxX, rect.maxY);
+        }
+        if (!damaged) {
+            return false;
+        }
+        pg.clearDamage();
+
+        GridSnapshot snapshot = snapshots[writeIndex];
+        short[] material = pg.getMergedMaterials();
+        int[] color = pg.getMergedColors();
+        for (int c = 0; c < chunks.length; c++) {
+            PowderGrid.DirtyRect rect = pending[writeIndex][c];
+            if (!rect.isEmpty()) {
+                int length = rect.maxX - rect.minX + 1;
+                for (int y = rect.minY; y <= rect.maxY; y++) {
+                    int pos = pg.findTrueLocation(rect.minX, y);
+                    System.arraycopy(material, pos, snapshot.material, pos, length);
+                    System.arraycopy(color, pos, snapshot.color, pos, length);
+                }
+                rect.reset();
+            }
+            snapshot.damage[c].set(unseen[c]);
+        }
+        snapshot.tick = tick;
+        snapshot.filled = pg.getFilledPixels();
+        snapshot.population = pg.copyPopulation(snapshot.population);
+
+        int old = middle.getAndSet(writeIndex | FRESH);
+        writeIndex = old & 3;
+        if ((old & FRESH) == 0) {
+            // the reader took the previous snapshot, so it has only missed this publish
+            for (int c = 0; c < chunks.length; c++) {
+                unseen[c].set(latest[c]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a published snapshot is waiting for the reader.
+     */
+    public boolean hasFresh() {
+        return (middle.get() & FRESH) != 0;
+    }
+
+    /**
+     * Take the newest published snapshot, reader side.
+     * <p>
+     * The previously taken snapshot is handed back to the writer and must no longer be read.
+     * @return the new snapshot, or null if nothing was published since the last take
+     */
+    public GridSnapshot take() {
+        if (!hasFresh()) {
+            return null;
+        }
+
+        readIndex = middle.getAndSet(readIndex) & 3;
+        return snapshots[readIndex];
+    }
+
+    /**
+     * Get the snapshot the reader currently holds, reader side.
+     */
+    public GridSnapshot current() {
+        return snapshots[readIndex];
+    }
+}
@@ -0,0 +1,158 @@
+package com.jpowder;
+
+import com.jpowder.powder.Material;
+import com.jpowder.powder.Registry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * Reads and writes worlds as plain text.
+ * <p>
+ * The format is a {@code jpowder-world 1} header line, a {@code <width> <height>} line, a
+ * legend of {@code <char> <registry ID>} lines ended by a blank line, then one line of cells per
+ * grid row with {@code .} for empty cells. Materials are stored by registry ID rather than
+ * material id, so worlds survive changes to the registration order. Only materials are saved;
+ * loaded powders start out fresh.
+ */
+public final class WorldFile {
+    private static final String HEADER = "jpowder-world 1";
+    private static final char EMPTY_CHAR = '.';
+    // characters handed out to materials, in order of material id
+    private static final String MATERIAL_CHARS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789#$%&*+-=?@^~";
+
+    private WorldFile() { }
+
+    /**
+     * Write the merged grid to a world file.
+     * @param pg The grid to save
+     * @param pr The registry the grid's materials belong to
+     * @param path The file to write
+     * @throws IOException if the file can't be written
+     * @throws IllegalArgumentException if there are more materials than the format supports
+     */
+    public static void save(PowderGrid pg, Registry pr, Path path) throws IOException, IllegalArgumentException {
+        int materials = pr.getRegisteredPowder().size();
+        if (materials > MATERIAL_CHARS.length()) {
+            throw new IllegalArgumentException("Can't save more than " + MATERIAL_CHARS.length() + " materials!");
+        }
+
+        short[] gridMaterials = pg.getMergedMaterials();
+        try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.newLine();
+            out.write(pg.getWidth() + " " + pg.getHeight());
+            out.newLine();
+            for (int id = 1; id <= materials; id++) {
+                out.write(MATERIAL_CHARS.charAt(id-1) + " " + pr.getID(id));
+                out.newLine();
+            }
+            out.newLine();
+
+            char[] row = new char[pg.getWidth()];
+            for (int y = 0; y < pg.getHeight(); y++) {
+                int index = pg.findTrueLocation(0, y);
+                for (int x = 0; x < row.length; x++, index++) {
+                    short material = gridMaterials[index];
+                    row[x] = material == PowderGrid.EMPTY ? EMPTY_CHAR : MATERIAL_CHARS.charAt(material-1);
+                }
+                out.write(row);
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Read a world file into a new grid.
+     * @param path The file to read
+     * @param pr The registry to resolve materials with
+     * @return the loaded (and merged) grid
+     * @throws IOException if the file can't be read or isn't a valid world
+     */
+    public static PowderGrid load(Path path, Registry pr) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (!HEADER.equals(in.readLine())) {
+                throw new IOException(path + " is not a world file");
+            }
+            String[] size = readLine(in, path).trim().split("\\s+");
+            if (size.length != 2) {
+                throw new IOException(path + ": invalid size line");
+            }
+            PowderGrid pg;
+            try {
+                pg = new PowderGrid(Integer.parseInt(size[0]), Integer.parseInt(size[1]));
+            } catch (NumberFormatException e) {
+                throw new IOException(path + ": invalid size line", e);
+            }
+
+            HashMap<Character, Short> legend = new HashMap<>();
+            for (String line = readLine(in, path); !line.isEmpty(); line = readLine(in, path)) {
+                String id = line.substring(1).trim();
+                if (!pr.isRegistered(id)) {
+                    throw new IOException(path + ": unknown material " + id);
+                }
+                legend.put(line.charAt(0), pr.getMaterialId(id));
+            }
+
+            for (int y = 0; y < pg.getHeight(); y++) {
+                String row = readLine(in, path);
+                for (int x = 0; x < Math.min(row.length(), pg.getWidth()); x++) {
+                    char c = row.charAt(x);
+                    if (c == EMPTY_CHAR) {
+                        continue;
+                    }
+
+                    Short material = legend.get(c);
+                    if (material == null) {
+                        throw new IOException(path + ": unknown cell '" + c + "' at " + x + "," + y);
+                    }
+                    pg.setPixel(x, y, pr.getMaterial(material));
+                }
+            }
+            pg.mergeGrid();
+            return pg;
+        }
+    }
+
+    private static String readLine(BufferedReader in, Path path) throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            throw new IOException(path + ": unexpected end of file");
+        }
+        return line;
+    }
+
+    /**
+     * Write the merged grid's colors as a binary PPM image, one pixel per cell.
+     * @param pg The grid to save
+     * @param path The file to write
+     * @throws IOException if the file can't be written
+     */
+    public static void saveImage(PowderGrid pg, Path path) throws IOException {
+        short[] gridMaterials = pg.getMergedMaterials();
+        int[] gridColors = pg.getMergedColors();
+        byte[] pixels = new byte[pg.getWidth()*pg.getHeight()*3];
+        int pixel = 0;
+        for (int y = 0; y < pg.getHeight(); y++) {
+            int index = pg.findTrueLocation(0, y);
+            for (int x = 0; x < pg.getWidth(); x++, index++) {
+                int color = gridMaterials[index] != PowderGrid.EMPTY ? gridColors[index] : 0;
+                pixels[pixel++] = (byte) PowderUtilities.red(color);
+                pixels[pixel++] = (byte) PowderUtilities.green(color);
+                pixels[pixel++] = (byte) PowderUtilities.blue(color);
+            }
+        }
+
+        try (OutputStream out = Files.newOutputStream(path)) {
+            out.write(("P6\n" + pg.getWidth() + " " + pg.getHeight() + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(pixels);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.jpowder.behavior;
+
+import com.jpowder.PowderGrid;
+import com.jpowder.SimRandom;
+import com.jpowder.powder.Material;
+
+/**
+ * {@link com.jpowder.powder.ShiftRule#FLUID}: falls, and once it has landed flows sideways up to
+ * its {@link Material#dispersion} cells per tick.
+ * <p>
+ * A landed fluid first looks both ways for a drop to flow down into. With none in reach, it keeps
+ * spreading over the surface in the direction it was last going (or towards a free side right
+ * after landing) until something blocks it, and then stops for good. That spreads a body of fluid
+ * out nearly flat, after which it sleeps instead of jittering forever; see
+ * {@link com.jpowder.PowderSimulation#setPressureInterval(int)} for levelling it exactly.
+ */
+public class FluidBehavior implements MaterialBehavior {
+    @Override
+    public int update(PowderGrid pg, int x, int y, int index, Material material, SimRandom rand) {
+        int target = flow(pg, x, y, index, material, rand);
+        if (target != index) {
+            // fluid up to a dispersion away on this row and the one above may have been held back
+            // by this cell, and moving only wakes direct neighbors
+            pg.wake(x - material.dispersion, y - 1, x + material.dispersion, y);
+        }
+
+        return target;
+    }
+
+    private static int flow(PowderGrid pg, int x, int y, int index, Material material, SimRandom rand) {
+        if (pg.getMaterialAt(index + pg.getStride()) == PowderGrid.EMPTY) {
+            return MaterialBehavior.fall(pg, index, material);
+        }
+        boolean landing = pg.getVelocityAt(index) != 0;
+        MaterialBehavior.land(pg, x, y, index);
+
+        // look both ways for a drop, starting with a random side so neither is favored
+        int step = rand.nextBoolean() ? -1 : 1;
+        int target = findDrop(pg, index, step, material.dispersion);
+        if (target == index) {
+            step = -step;
+            target = findDrop(pg, index, step, material.dispersion);
+        }
+        if (target != index) {
+            pg.setFlowDirection(index, step);
+            return target;
+        }
+
+        // nothing lower in reach, keep spreading out the way it was going, or start out towards
+        // a free side
+        int direction = landing ? 0 : pg.getFlowDirection(index);
+        if (direction == 0) {
+            boolean leftFree = pg.getMaterialAt(index - 1) == PowderGrid.EMPTY;
+            boolean rightFree = pg.getMaterialAt(index + 1) == PowderGrid.EMPTY;
+            direction = leftFree && rightFree ? step : leftFree ? -1 : rightFree ? 1 : 0;
+        }
+        if (direction != 0) {
+            pg.setFlowDirection(index, direction);
+            target = spread(pg, index, direction, material.dispersion);
+        }
+
+        return target;
+    }
+
+    /**
+     * Scan sideways for the nearest cell the fluid could drop down from.
+     * @param pg The grid being updated
+     * @param index The index of the fluid on the 1D grid
+     * @param step -1 to scan left, 1 to scan right
+     * @param distance How many cells to scan at most
+     * @return the index of the cell to flow to, or {@code index} if there's none in reach
+     */
+    private static int findDrop(PowderGrid pg, int index, int step, int distance) {
+        int stride = pg.getStride();
+        int cell = index;
+        for (int i = 0; i < distance; i++) {
+            cell += step;
+            if (pg.getMaterialAt(cell) != PowderGrid.EMPTY) {
+                return index; // walled in before finding a drop
+            }
+            if (pg.getMaterialAt(cell + stride) == PowderGrid.EMPTY) {
+                return cell;
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Find how far sideways the fluid can spread over the surface it rests on.
+     * @param pg The grid being updated
+     * @param index The index of the fluid on the 1D grid
+     * @param step -1 to spread left, 1 to spread right
+     * @param distance How many cells to spread at most
+     * @return the index of the furthest free cell, or {@code index} if the fluid is blocked
+     */
+    private static int spread(PowderGrid pg, int index, int step, int distance) {
+        int cell = index;
+        for (int i = 0; i < distance && pg.getMaterialAt(cell + step) == PowderGrid.EMPTY; i++) {
+            cell += step;
+        }
+
+        return cell;
+    }
+}
@@ -0,0 +1,58 @@
+package com.jpowder.behavior;
+
+import com.jpowder.PowderGrid;
+import com.jpowder.SimRandom;
+import com.jpowder.powder.Material;
+
+/**
+ * {@link com.jpowder.powder.ShiftRule#GAS}: randomly floats, sinks and drifts, darkening as its
+ * life runs out until it disappears.
+ */
+public class GasBehavior implements MaterialBehavior {
+    @Override
+    public int update(PowderGrid pg, int x, int y, int index, Material material, SimRandom rand) {
+        int occupied = pg.getNeighborMask(index);
+        int dy;
+        if (rand.nextInt(material.floatMax) >= material.floatNeeded) {
+            dy = -1;
+        } else if (rand.nextInt(material.sinkMax) >= material.sinkNeeded) {
+            dy = 1;
+        } else {
+            dy = 0;
+        }
+
+        if ((occupied & 1 << PowderGrid.ABOVE) != 0) {
+            dy = 0;
+        }
+
+        // the sideways neighbors of the row the gas is heading for
+        int left = dy < 0 ? PowderGrid.ABOVE_LEFT : dy > 0 ? PowderGrid.BELOW_LEFT : PowderGrid.LEFT;
+        int right = dy < 0 ? PowderGrid.ABOVE_RIGHT : dy > 0 ? PowderGrid.BELOW_RIGHT : PowderGrid.RIGHT;
+        boolean canMoveLeft = (occupied & 1 << left) == 0;
+        boolean canMoveRight = (occupied & 1 << right) == 0;
+        boolean shouldMove = (rand.nextInt(material.floatMax) >= material.shiftNeeded);
+
+        int dx = 0;
+        if (!shouldMove) {
+            assert true; // do nothing
+        } else if (canMoveLeft && canMoveRight) {
+            dx = rand.nextBoolean() ? -1 : 1;
+        } else if (canMoveLeft) {
+            dx = -1;
+        } else if (canMoveRight) {
+            dx = 1;
+        }
+        int life = pg.getLifeAt(index) - 1;
+        pg.setLifeAt(index, life);
+
+        // darken the gas based on its life
+        pg.setColorAt(index, material.getFadeColor(life));
+
+        if (life <= 1) {
+            pg.erasePixel(x, y);
+            return REMOVED;
+        }
+
+        return index + dy*pg.getStride() + dx;
+    }
+}
@@ -0,0 +1,121 @@
+package com.jpowder.behavior;
+
+import com.jpowder.PowderGrid;
+import com.jpowder.SimRandom;
+import com.jpowder.powder.Material;
+import com.jpowder.powder.ShiftRule;
+
+/**
+ * How a material moves on its own, one implementation per {@link ShiftRule}.
+ * <p>
+ * The simulation keeps one behavior per material id (see
+ * {@link com.jpowder.powder.Registry#getBehavior(int)}). Each tick a chunk first runs its
+ * reaction pass, then calls the behavior of every woken powder that is still there, and finally
+ * handles displacement and the move itself, which are shared by every material. Behaviors never
+ * see relationships.
+ */
+public interface MaterialBehavior {
+    /**
+     * Returned by {@link #update} when the powder removed itself from the grid.
+     */
+    int REMOVED = -1;
+
+    /**
+     * Work out where a powder wants to move this tick.
+     * <p>
+     * Behaviors may update the powder's own color and life, but must not move it; the simulation
+     * does that afterwards, sinking the powder into a displaceable cell below or swapping it
+     * sideways instead if it can, and otherwise moving it to the returned index.
+     * @param pg The grid being updated
+     * @param x X position of the powder
+     * @param y Y position of the powder
+     * @param index The index of the powder on the 1D grid
+     * @param material The material of the powder
+     * @param rand The RNG to draw from, owned by the calling thread
+     * @return the index to move to (which may be {@code index} itself), or {@link #REMOVED}
+     */
+    int update(PowderGrid pg, int x, int y, int index, Material material, SimRandom rand);
+
+    /**
+     * Whether powders with this behavior never move or displace on their own, so the movement
+     * pass can skip them. They still react with their neighbors.
+     * @return if the behavior is static
+     */
+    default boolean isStatic() {
+        return false;
+    }
+
+    /**
+     * Work out where a powder with nothing below it falls to this tick.
+     * <p>
+     * The powder speeds up by a cell per tick every tick, up to its
+     * {@link Material#maxFallSpeed}. The fall is swept a cell at a time and stops above the first
+     * cell that isn't empty, so powders never pass through anything (a displaceable powder is
+     * dealt with once they land on it). The velocity is kept on the grid and moves with the
+     * powder. A powder cut short keeps the speed it actually fell at, so one falling right behind
+     * another keeps pace with it.
+     * @param pg The grid being updated
+     * @param index The index of the powder on the 1D grid, with an empty cell below
+     * @param material The material of the powder
+     * @return the index to fall to
+     */
+    static int fall(PowderGrid pg, int index, Material material) {
+        int stride = pg.getStride();
+        int speed = Math.min(pg.getVelocityAt(index) + 1, material.maxFallSpeed);
+        int target = index + stride;
+        int fallen = 1;
+        for (; fallen < speed && pg.getMaterialAt(target + stride) == PowderGrid.EMPTY; fallen++) {
+            target += stride;
+        }
+
+        pg.setVelocityAt(index, fallen);
+        return target;
+    }
+
+    /**
+     * Handle a falling powder that has something below it.
+     * <p>
+     * If that something is falling too (it just hasn't moved yet this tick), the powder keeps its
+     * speed and stays awake, so a column that's briefly blocked carries on as a whole next tick.
+     * Otherwise the powder has come to rest, and starts from standstill when it next falls.
+     * @param pg The grid being updated
+     * @param x X position of the powder
+     * @param y Y position of the powder
+     * @param index The index of the powder on the 1D grid
+     */
+    static void land(PowderGrid pg, int x, int y, int index) {
+        if (pg.getVelocityAt(index) == 0) {
+            return;
+        }
+
+        if (pg.getVelocityAt(index + pg.getStride()) != 0) {
+            pg.wake(x, y);
+        } else {
+            pg.setVelocityAt(index, 0);
+        }
+    }
+
+    /**
+     * Get the behavior for a shift rule.
+     * @param shift The shift rule
+     * @return a behavior implementing {@code shift}
+     */
+    static MaterialBehavior forShiftRule(ShiftRule shift) {
+        switch (shift) {
+            case STACK:
+                return new StackBehavior();
+            case SOLID:
+                return new SolidBehavior();
+            case SLIP:
+                return new SlipBehavior();
+            case STICK:
+                return new StickBehavior();
+            case FLUID:
+                return new FluidBehavior();
+            case GAS:
+                return new GasBehavior();
+            default:
+                throw new IllegalArgumentException("No behavior for shift rule " + shift);
+        }
+    }
+}
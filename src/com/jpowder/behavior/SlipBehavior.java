@@ -0,0 +1,50 @@
+package com.jpowder.behavior;
+
+import com.jpowder.PowderGrid;
+import com.jpowder.SimRandom;
+import com.jpowder.powder.Material;
+
+/**
+ * {@link com.jpowder.powder.ShiftRule#SLIP}: falls, and slips diagonally off of whatever it
+ * lands on if there's free space.
+ */
+public class SlipBehavior implements MaterialBehavior {
+    @Override
+    public int update(PowderGrid pg, int x, int y, int index, Material material, SimRandom rand) {
+        int below = index + pg.getStride();
+        int occupied = pg.getNeighborMask(index);
+        if ((occupied & 1 << PowderGrid.BELOW) == 0) {
+            return MaterialBehavior.fall(pg, index, material);
+        }
+        MaterialBehavior.land(pg, x, y, index);
+
+        // Stay in place if there's a neighbor below
+        if (!canSlipOff(pg.getMaterialAt(below), material)) {
+            return index; // dont shift, but dont block float shifting
+        }
+
+        boolean canMoveLeft = (occupied & (1 << PowderGrid.BELOW_LEFT | 1 << PowderGrid.LEFT)) == 0;
+        boolean canMoveRight = (occupied & (1 << PowderGrid.BELOW_RIGHT | 1 << PowderGrid.RIGHT)) == 0;
+
+        int target = index;
+        if (canMoveLeft && canMoveRight) {
+            target += rand.nextBoolean() ? -1 : 1;
+        } else if (canMoveLeft) {
+            target -= 1;
+        } else if (canMoveRight) {
+            target += 1;
+        }
+
+        return target;
+    }
+
+    /**
+     * Check whether this powder may slip off of the powder below it.
+     * @param below The material id below the powder
+     * @param material The material of the powder
+     * @return if slipping is allowed
+     */
+    protected boolean canSlipOff(short below, Material material) {
+        return true;
+    }
+}
@@ -0,0 +1,20 @@
+package com.jpowder.behavior;
+
+import com.jpowder.PowderGrid;
+import com.jpowder.SimRandom;
+import com.jpowder.powder.Material;
+
+/**
+ * {@link com.jpowder.powder.ShiftRule#SOLID}: never moves.
+ */
+public class SolidBehavior implements MaterialBehavior {
+    @Override
+    public int update(PowderGrid pg, int x, int y, int index, Material material, SimRandom rand) {
+        return index;
+    }
+
+    @Override
+    public boolean isStatic() {
+        return true;
+    }
+}
@@ -0,0 +1,21 @@
+package com.jpowder.behavior;
+
+import com.jpowder.PowderGrid;
+import com.jpowder.SimRandom;
+import com.jpowder.powder.Material;
+
+/**
+ * {@link com.jpowder.powder.ShiftRule#STACK}: falls straight down and piles up in columns,
+ * never slipping to the side.
+ */
+public class StackBehavior implements MaterialBehavior {
+    @Override
+    public int update(PowderGrid pg, int x, int y, int index, Material material, SimRandom rand) {
+        if (pg.getMaterialAt(index + pg.getStride()) != PowderGrid.EMPTY) {
+            MaterialBehavior.land(pg, x, y, index);
+            return index;
+        }
+
+        return MaterialBehavior.fall(pg, index, material);
+    }
+}
@@ -0,0 +1,14 @@
+package com.jpowder.behavior;
+
+import com.jpowder.powder.Material;
+
+/**
+ * {@link com.jpowder.powder.ShiftRule#STICK}: like {@link SlipBehavior}, but only slips off of
+ * powders of the same type.
+ */
+public class StickBehavior extends SlipBehavior {
+    @Override
+    protected boolean canSlipOff(short below, Material material) {
+        return below == material.id;
+    }
+}
@@ -3,6 +3,11 @@ package com.jpowder.powder;
 import com.jpowder.PowderUtilities;
 
 public class BaseFluid extends BasePowder {
+    /**
+     * How many cells sideways this Fluid looks for somewhere lower to flow to, per tick.
+     */
+    public int dispersion = 4;
+
     public BaseFluid(int findex, int life, int color) {
         super(ShiftRule.FLUID, findex, color, life);
 
@@ -1,11 +1,6 @@
 package com.jpowder.powder;
 
 public class BasePowder implements Cloneable {
-    public int x;
-    public int y;
-
-    public boolean erased; // whether the powder is marked as 'erased' and should be ignored
-
     public final ShiftRule shift;
     public final int fIndex;
     public int life;
@@ -13,29 +8,18 @@ public class BasePowder implements Cloneable {
     public boolean canDisplaceHorizontal;
     public boolean canDisplaceVertical;
 
-    public float velocity;
     public final float TERMINAL_VELOCITY = 25;
-    private final double gravity = 9.8;
 
     public int color;
     public final int originalColor;
 
-    public void calculateNextPos(float timeElapsed) {
-//        xf = x0 + v0*t + (1/2)*g*t^2
-
-        velocity += (int) (0.5 * gravity * (timeElapsed * timeElapsed));
-
-        if (velocity > TERMINAL_VELOCITY) {
-            velocity = TERMINAL_VELOCITY;
-        }
-
-        velocity = 1.0f;
-    }
+    /**
+     * Temperature in degrees Celsius this powder keeps its cell at, at least. Anything at or
+     * under {@link com.jpowder.PowderGrid#AMBIENT_TEMPERATURE} gives off no heat.
+     */
+    public float heat = 0;
 
     public BasePowder(ShiftRule shift, int fIndex, int color, int life) {
-        x = 0;
-        y = 0;
-        velocity = 0.0f;
         this.life = life;
 
 //        color = (int) (Math.random() * 0xffffff);
@@ -45,7 +29,6 @@ public class BasePowder implements Cloneable {
 
         canDisplaceHorizontal = true;
         canDisplaceVertical = true;
-        erased = false;
         originalColor = this.color;
         originalLife = this.life;
     }
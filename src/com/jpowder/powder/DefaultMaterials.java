@@ -0,0 +1,31 @@
+package com.jpowder.powder;
+
+/**
+ * The built-in powders and relationships, shared by every entry point.
+ */
+public final class DefaultMaterials {
+    private DefaultMaterials() { }
+
+    /**
+     * Register every built-in powder, followed by their relationships and thresholds.
+     * @param pr The registry to register into
+     */
+    public static void register(Registry pr) {
+        pr.register(new SandPowder(), "sand_powder", "Sand");
+        pr.register(new WetSandPowder(), "wet_sand_powder", "Moist Sand");
+        pr.register(new RockPowder(), "rock_powder", "Rock");
+        pr.register(new WaterFluid(), "water_fluid", "Water");
+        pr.register(new FireGas(), "fire_gas", "Fire");
+        pr.register(new WoodPowder(), "wood_powder", "Wood");
+        pr.register(new HydrogenFluid(), "hydrogen_fluid", "Hydrogen");
+
+        // water soaks into sand gradually rather than on first contact
+        pr.registerRelationship("sand_powder", "water_fluid", "wet_sand_powder", RelationshipType.MERGE, 0.25f, null, null);
+        pr.registerRelationship("fire_gas", "water_fluid", "water_fluid", RelationshipType.CONSUME);
+
+        // fire spreads by heating what's around it
+        pr.registerThreshold("wood_powder", 300, "fire_gas");
+        pr.registerThreshold("hydrogen_fluid", 500, "fire_gas");
+        pr.registerThreshold("wet_sand_powder", 100, "sand_powder");
+    }
+}
@@ -9,5 +9,6 @@ public class FireGas extends BaseGas {
         floatNeeded = 80;
         shiftNeeded = 95;
         sinkNeeded = 100;
+        heat = 1000;
     }
 }
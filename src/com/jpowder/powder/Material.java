@@ -0,0 +1,116 @@
+package com.jpowder.powder;
+
+import com.jpowder.PowderGrid;
+import com.jpowder.PowderUtilities;
+
+/**
+ * Immutable description of a registered powder.
+ * <p/>
+ * One Material is shared by every particle of its kind; the grid only stores a particle's
+ * material id alongside its mutable state (color, life and flags).
+ */
+public final class Material {
+    /**
+     * The dense material id, as stored in the grid.
+     */
+    public final short id;
+    /**
+     * The registry ID of the powder.
+     */
+    public final String name;
+    public final String pretty;
+
+    public final ShiftRule shift;
+    public final int fIndex;
+    public final int originalColor;
+    public final int originalLife;
+    public final boolean canDisplaceHorizontal;
+    public final boolean canDisplaceVertical;
+    public final float terminalVelocity;
+    /**
+     * Cells fallen per tick at terminal velocity, at most {@link PowderGrid#MAX_FALL_SPEED}.
+     */
+    public final int maxFallSpeed;
+    /**
+     * Cells a fluid looks sideways per tick, at most {@link PowderGrid#MAX_DISPERSION}. 1 for
+     * anything that isn't a fluid.
+     */
+    public final int dispersion;
+    /**
+     * Temperature this material keeps its cell at, at least, in degrees Celsius.
+     */
+    public final float heat;
+
+    /**
+     * Whether this material behaves as a gas, in which case the gas fields below apply.
+     */
+    public final boolean gas;
+    public final int floatNeeded;
+    public final int sinkNeeded;
+    public final int shiftNeeded;
+    public final int floatMax;
+    public final int sinkMax;
+    // fadeColors[life], the original color darkened in proportion to the life left
+    private final int[] fadeColors;
+
+    /**
+     * Describe a powder from its registered instance.
+     * @param id The material id
+     * @param name The registry ID of the powder
+     * @param pretty The display name of the powder
+     * @param powder The registered instance to read properties from
+     */
+    public Material(short id, String name, String pretty, BasePowder powder) {
+        this.id = id;
+        this.name = name;
+        this.pretty = pretty;
+
+        shift = powder.shift;
+        fIndex = powder.fIndex;
+        originalColor = powder.originalColor;
+        originalLife = powder.originalLife;
+        canDisplaceHorizontal = powder.canDisplaceHorizontal;
+        canDisplaceVertical = powder.canDisplaceVertical;
+        terminalVelocity = powder.TERMINAL_VELOCITY;
+        maxFallSpeed = Math.max(1, Math.min((int) terminalVelocity, PowderGrid.MAX_FALL_SPEED));
+        dispersion = powder instanceof BaseFluid
+                ? Math.max(1, Math.min(((BaseFluid) powder).dispersion, PowderGrid.MAX_DISPERSION)) : 1;
+        heat = powder.heat;
+
+        gas = powder instanceof BaseGas;
+        if (gas) {
+            BaseGas gasPowder = (BaseGas) powder;
+            floatNeeded = gasPowder.floatNeeded;
+            sinkNeeded = gasPowder.sinkNeeded;
+            shiftNeeded = gasPowder.shiftNeeded;
+            floatMax = gasPowder.floatMax;
+            sinkMax = gasPowder.sinkMax;
+            fadeColors = buildFadeColors(originalColor, originalLife);
+        } else {
+            floatNeeded = 0;
+            sinkNeeded = 0;
+            shiftNeeded = 0;
+            floatMax = 0;
+            sinkMax = 0;
+            fadeColors = new int[] { originalColor };
+        }
+    }
+
+    private static int[] buildFadeColors(int color, int life) {
+        int[] colors = new int[Math.max(life, 0)+1];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = life > 0 ? PowderUtilities.scaleColorInt(color, (float) i/life) : color;
+        }
+
+        return colors;
+    }
+
+    /**
+     * Get the color of this material with the given life left, as used by gases to fade out.
+     * @param life The life left, clamped to between 0 and {@link #originalLife}
+     * @return the faded color int
+     */
+    public int getFadeColor(int life) {
+        return fadeColors[Math.min(Math.max(life, 0), fadeColors.length-1)];
+    }
+}
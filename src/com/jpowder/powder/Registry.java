@@ -1,123 +1,388 @@
 package com.jpowder.powder;
 
+import com.jpowder.PowderGrid;
+import com.jpowder.behavior.MaterialBehavior;
+
 import java.util.ArrayList;
-import java.util.Objects;
+import java.util.Arrays;
+import java.util.HashMap;
 
 /**
  * Powder Registry.
  * <p/>
- * Holds registered powders so that they can be cloned later.
+ * Holds registered powders, and the shared {@link Material} describing each of them.
+ * <p/>
+ * Every powder gets a dense material id when it is registered, and relationships are kept in
+ * an N x N table indexed by material id pair, so the simulation can resolve them with plain
+ * array loads. Both are offset by one so that the grid's {@link PowderGrid#WALL} border (id -1)
+ * resolves too: it has an immovable material of its own and no relationships. Each material
+ * also gets a bitmask of its reactive partners, so the simulation can rule out every relationship
+ * of a cell with one AND against its neighbors.
+ * <p/>
+ * Thresholds (state changes at a temperature) are kept in a table indexed by material id the
+ * same way.
  */
 public class Registry {
     private final ArrayList<RegistryEntry> registeredPowder;
     private final ArrayList<RelationshipEntry> registeredRelationships;
+    private final ArrayList<ThresholdEntry> registeredThresholds;
+
+    private final HashMap<String, RegistryEntry> powderByID;
+    private final HashMap<Class<?>, RegistryEntry> powderByClass;
+    // materials[id+1], where index 0 is the wall and index 1 (empty) is left null
+    private Material[] materials;
+    // behaviors[id+1], laid out like materials
+    private MaterialBehavior[] behaviors;
+
+    // relationshipTable[(first+1)*relationshipStride + second+1], null where there is no relationship
+    private RelationshipEntry[] relationshipTable;
+    private int relationshipStride;
+    // reactivePartners[id+1], bit (partner & 63) set for every material id it has a relationship with
+    private long[] reactivePartners;
+    // thresholdTable[id+1], laid out like materials, null where there is no threshold
+    private ThresholdEntry[] thresholdTable;
 
     /**
      * Registry entry, used for storing BasePowder objects and an ID.
+     * <p/>
+     * Each entry also gets a dense material id, starting at 1, which the grid stores per cell.
      */
     public static class RegistryEntry {
         public final BasePowder powder;
         public final String id;
         public final String pretty;
+        public final short material;
 
-        public RegistryEntry(BasePowder powder, String id, String pretty) {
+        public RegistryEntry(BasePowder powder, String id, String pretty, short material) {
             this.powder = powder;
             this.id = id;
             this.pretty = pretty;
+            this.material = material;
         }
     }
+
+    /**
+     * Relationship entry, a reaction between two powders.
+     * <p/>
+     * A reaction fires with its probability on every tick the two powders touch, so a low
+     * probability makes for a slow reaction. The roll is made once per touching pair, from the
+     * cell of the first powder. If it has a catalyst, it only fires while the catalyst touches that
+     * cell too. A byproduct is left behind in the cell the reaction frees up: the first powder's
+     * cell for {@link RelationshipType#MERGE}, the consumed cell for
+     * {@link RelationshipType#CONSUME}. {@link RelationshipType#PAINT} frees no cell, so it can't
+     * have a byproduct. Catalyst and byproduct are null when there is none.
+     */
     public static class RelationshipEntry {
         public final String first;
         public final String second;
         public final String out;
         public final RelationshipType relationshipType;
+        public final float probability;
+        public final String catalyst;
+        public final String byproduct;
+
+        public final short firstMaterial;
+        public final short secondMaterial;
+        public final short outMaterial;
+        // PowderGrid.EMPTY where there is none
+        public final short catalystMaterial;
+        public final short byproductMaterial;
 
-        public RelationshipEntry(String first, String second, String out, RelationshipType relationshipType) {
+        public RelationshipEntry(String first, String second, String out, RelationshipType relationshipType,
+                                 short firstMaterial, short secondMaterial, short outMaterial) {
+            this(first, second, out, relationshipType, 1, null, null,
+                    firstMaterial, secondMaterial, outMaterial, PowderGrid.EMPTY, PowderGrid.EMPTY);
+        }
+
+        public RelationshipEntry(String first, String second, String out, RelationshipType relationshipType,
+                                 float probability, String catalyst, String byproduct,
+                                 short firstMaterial, short secondMaterial, short outMaterial,
+                                 short catalystMaterial, short byproductMaterial) {
             this.first = first;
             this.second = second;
             this.out = out;
             this.relationshipType = relationshipType;
+            this.probability = probability;
+            this.catalyst = catalyst;
+            this.byproduct = byproduct;
+            this.firstMaterial = firstMaterial;
+            this.secondMaterial = secondMaterial;
+            this.outMaterial = outMaterial;
+            this.catalystMaterial = catalystMaterial;
+            this.byproductMaterial = byproductMaterial;
+        }
+    }
+
+    /**
+     * A state change: a powder turns into 'out' once its cell is at least {@code temperature} hot.
+     */
+    public static class ThresholdEntry {
+        public final String powder;
+        public final String out;
+        public final float temperature;
+
+        public final short material;
+        public final short outMaterial;
+
+        public ThresholdEntry(String powder, String out, float temperature, short material, short outMaterial) {
+            this.powder = powder;
+            this.out = out;
+            this.temperature = temperature;
+            this.material = material;
+            this.outMaterial = outMaterial;
         }
     }
 
     public Registry() {
         registeredPowder = new ArrayList<>();
         registeredRelationships = new ArrayList<>();
+        registeredThresholds = new ArrayList<>();
+        powderByID = new HashMap<>();
+        powderByClass = new HashMap<>();
+        BasePowder wall = new BasePowder(ShiftRule.SOLID, -1, 0, 0);
+        wall.canDisplaceHorizontal = false;
+        wall.canDisplaceVertical = false;
+        materials = new Material[] { new Material(PowderGrid.WALL, "wall", "Wall", wall), null };
+        behaviors = new MaterialBehavior[] { MaterialBehavior.forShiftRule(ShiftRule.SOLID), null };
+        rebuildRelationshipTable();
+        rebuildThresholdTable();
     }
 
 
     /**
      * Register a new powder.
-     * @param powder The instance of the powder to clone
+     * <p/>
+     * The powder's properties are captured into a {@link Material} at this point, so later
+     * changes to the instance aren't picked up.
+     * @param powder The instance of the powder to describe
      * @param id The id to set the powder to
      */
     public void register(BasePowder powder, String id, String pretty) {
-        registeredPowder.add(new RegistryEntry(powder, id, pretty));
+        RegistryEntry entry = new RegistryEntry(powder, id, pretty, (short) (registeredPowder.size()+1));
+        registeredPowder.add(entry);
+        materials = Arrays.copyOf(materials, materials.length+1);
+        materials[entry.material+1] = new Material(entry.material, id, pretty, powder);
+        behaviors = Arrays.copyOf(behaviors, behaviors.length+1);
+        behaviors[entry.material+1] = MaterialBehavior.forShiftRule(powder.shift);
+        powderByID.put(id, entry);
+        powderByClass.putIfAbsent(powder.getClass(), entry);
+        rebuildRelationshipTable();
+        rebuildThresholdTable();
     }
     public void registerRelationship(String first, String second, String out, RelationshipType relationshipType) throws IllegalArgumentException {
-        if (isRegistered(first) && isRegistered(out) && isRegistered(out)) {
-            registeredRelationships.add(new RelationshipEntry(first, second, out, relationshipType));
+        registerRelationship(first, second, out, relationshipType, 1, null, null);
+    }
+
+    /**
+     * Register a reaction that doesn't always fire.
+     * @param first The id of the first powder
+     * @param second The id of the second powder
+     * @param out The id of the powder the reaction produces
+     * @param relationshipType How the powders react
+     * @param probability The chance of reacting on each tick the powders touch, above 0 and at most 1
+     * @param catalyst The id of the powder that also has to touch the reacting powder, or null for none
+     * @param byproduct The id of the powder left behind by the reaction, or null for none
+     * @throws IllegalArgumentException if a powder isn't registered, the probability is out of range,
+     * or a {@link RelationshipType#PAINT} reaction is given a byproduct
+     */
+    public void registerRelationship(String first, String second, String out, RelationshipType relationshipType,
+                                     float probability, String catalyst, String byproduct) throws IllegalArgumentException {
+        if (!(probability > 0 && probability <= 1)) {
+            throw new IllegalArgumentException("Probability must be above 0 and at most 1, got " + probability);
+        }
+        if (relationshipType == RelationshipType.PAINT && byproduct != null) {
+            throw new IllegalArgumentException("A painting reaction frees no cell to leave a byproduct in");
+        }
+        if (isRegistered(first) && isRegistered(second) && isRegistered(out)
+                && (catalyst == null || isRegistered(catalyst)) && (byproduct == null || isRegistered(byproduct))) {
+            registeredRelationships.add(new RelationshipEntry(first, second, out, relationshipType,
+                    probability, catalyst, byproduct,
+                    getMaterialId(first), getMaterialId(second), getMaterialId(out),
+                    catalyst != null ? getMaterialId(catalyst) : PowderGrid.EMPTY,
+                    byproduct != null ? getMaterialId(byproduct) : PowderGrid.EMPTY));
+            rebuildRelationshipTable();
         } else {
             throw new IllegalArgumentException("Invalid ID for powder!");
         }
     }
 
     /**
-     * Create a new instance of a powder.
-     * @param id The id of the powder to create
-     * @return a clone of the powder
-     * @throws RuntimeException if the requested powder hasn't been registered
+     * Register a state change at a temperature, like wood igniting or ice melting.
+     * @param powder The id of the powder that changes
+     * @param temperature The temperature in degrees Celsius it changes at, or above
+     * @param out The id of the powder it turns into
+     * @throws IllegalArgumentException if either powder isn't registered
+     */
+    public void registerThreshold(String powder, float temperature, String out) throws IllegalArgumentException {
+        if (isRegistered(powder) && isRegistered(out)) {
+            registeredThresholds.add(new ThresholdEntry(powder, out, temperature, getMaterialId(powder), getMaterialId(out)));
+            rebuildThresholdTable();
+        } else {
+            throw new IllegalArgumentException("Invalid ID for powder!");
+        }
+    }
+
+    /**
+     * Rebuild the threshold table, sized for every currently registered powder. If a powder has
+     * more than one threshold, the first one registered wins.
      */
-    public BasePowder createInstance(String id) throws RuntimeException {
-        for (RegistryEntry entry : registeredPowder) {
-            if (Objects.equals(entry.id, id)) {
-                BasePowder powderClone = entry.powder.clone();
-                return entry.powder.clone();
+    private void rebuildThresholdTable() {
+        ThresholdEntry[] table = new ThresholdEntry[registeredPowder.size()+2];
+        for (ThresholdEntry entry : registeredThresholds) {
+            if (table[entry.material+1] == null) {
+                table[entry.material+1] = entry;
             }
         }
 
-        throw new RuntimeException("No such Powder: " + id);
+        thresholdTable = table;
     }
-    public RelationshipEntry getRelationship(String first, String second) {
+
+    /**
+     * Rebuild the relationship table, sized for every currently registered powder.
+     * <p/>
+     * Relationships work both ways, so each one is stored under both id pairs. If two
+     * relationships cover the same pair, the first one registered wins.
+     */
+    private void rebuildRelationshipTable() {
+        relationshipStride = registeredPowder.size()+2; // plus the wall and empty
+        RelationshipEntry[] table = new RelationshipEntry[relationshipStride*relationshipStride];
+        long[] partners = new long[relationshipStride];
+
         for (RelationshipEntry entry : registeredRelationships) {
-            if (Objects.equals(entry.first, first) && Objects.equals(entry.second, second) ||
-                    Objects.equals(entry.first, second) && Objects.equals(entry.second, first)) {
-                return entry;
+            int forward = (entry.firstMaterial+1)*relationshipStride + entry.secondMaterial+1;
+            int backward = (entry.secondMaterial+1)*relationshipStride + entry.firstMaterial+1;
+            if (table[forward] == null) {
+                table[forward] = entry;
+            }
+            if (table[backward] == null) {
+                table[backward] = entry;
             }
+            partners[entry.firstMaterial+1] |= 1L << entry.secondMaterial;
+            partners[entry.secondMaterial+1] |= 1L << entry.firstMaterial;
         }
-        throw new IllegalArgumentException("No such relationship (" + first + "," + second + ") is registered.");
+
+        relationshipTable = table;
+        reactivePartners = partners;
+    }
+
+    /**
+     * Get the material id of a powder.
+     * @param id The id of the powder
+     * @return the material id
+     * @throws RuntimeException if the requested powder hasn't been registered
+     */
+    public short getMaterialId(String id) throws RuntimeException {
+        RegistryEntry entry = powderByID.get(id);
+        if (entry == null) {
+            throw new RuntimeException("No such Powder: " + id);
+        }
+
+        return entry.material;
+    }
+
+    /**
+     * Get the shared material for a material id.
+     * @param material The material id
+     * @return the material, or null if {@code material} is empty
+     */
+    public Material getMaterial(int material) {
+        return materials[material+1];
+    }
+
+    /**
+     * Get the behavior of a material, which decides how it moves.
+     * @param material The material id
+     * @return the behavior, or null if {@code material} is empty
+     */
+    public MaterialBehavior getBehavior(int material) {
+        return behaviors[material+1];
+    }
+
+    public RelationshipEntry getRelationship(String first, String second) {
+        RelationshipEntry entry = null;
+        if (isRegistered(first) && isRegistered(second)) {
+            entry = getRelationship(getMaterialId(first), getMaterialId(second));
+        }
+
+        if (entry == null) {
+            throw new IllegalArgumentException("No such relationship (" + first + "," + second + ") is registered.");
+        }
+        return entry;
+    }
+
+    /**
+     * Get the relationship between two materials.
+     * @param first The first material id
+     * @param second The second material id
+     * @return the relationship, or null if there is none
+     */
+    public RelationshipEntry getRelationship(int first, int second) {
+        return relationshipTable[(first+1)*relationshipStride + second+1];
+    }
+
+    /**
+     * Get the state change of a material.
+     * @param material The material id
+     * @return the threshold, or null if there is none
+     */
+    public ThresholdEntry getThreshold(int material) {
+        return thresholdTable[material+1];
+    }
+
+    /**
+     * Get the materials a material has relationships with, as a bitmask with bit
+     * {@code (partner & 63)} set for each of them ({@code 1L << partner} in Java).
+     * <p/>
+     * With more than 64 materials, ids share bits, so a set bit only means there may be a
+     * relationship; a clear one always means there is none.
+     * @param material The material id
+     * @return the bitmask
+     */
+    public long getReactivePartners(int material) {
+        return reactivePartners[material+1];
     }
     public String getID(BasePowder powder) throws IllegalArgumentException {
         if (powder == null) {
             return null;
         }
 
-        for (RegistryEntry entry : registeredPowder) {
-            if (entry.powder.getClass() == powder.getClass()) {
-                return entry.id;
-            }
+        RegistryEntry entry = powderByClass.get(powder.getClass());
+        if (entry == null) {
+            throw new IllegalArgumentException("No such class '" + powder.getClass() + "' is registered.");
         }
-        throw new IllegalArgumentException("No such class '" + powder.getClass() + "' is registered.");
+        return entry.id;
+    }
+
+    /**
+     * Get the ID of a material.
+     * @param material The material id
+     * @return the ID, or null if {@code material} is empty or unknown
+     */
+    public String getID(int material) {
+        if (material <= 0 || material > registeredPowder.size()) {
+            return null;
+        }
+
+        return registeredPowder.get(material-1).id;
     }
     public ArrayList<RegistryEntry> getRegisteredPowder() {
         return registeredPowder;
     }
     public boolean hasRelationship(String first, String second) {
-        for (RelationshipEntry entry : registeredRelationships) {
-            if (Objects.equals(entry.first, first) && Objects.equals(entry.second, second) ||
-                    Objects.equals(entry.first, second) && Objects.equals(entry.second, first)) {
-                return true;
-            }
-        }
-        return false;
+        return isRegistered(first) && isRegistered(second) &&
+                hasRelationship(getMaterialId(first), getMaterialId(second));
     }
-    public boolean isRegistered(String id) {
-        for (RegistryEntry entry : registeredPowder) {
-            if (Objects.equals(entry.id, id)) {
-                return true;
-            }
-        }
 
-        return false;
+    /**
+     * Check whether two materials have a relationship.
+     * @param first The first material id
+     * @param second The second material id
+     * @return if there is a relationship
+     */
+    public boolean hasRelationship(int first, int second) {
+        return relationshipTable[(first+1)*relationshipStride + second+1] != null;
+    }
+    public boolean isRegistered(String id) {
+        return id != null && powderByID.containsKey(id);
     }
 }
@@ -4,6 +4,9 @@ package com.jpowder.powder;
  *  Contains different types of 'shift rules'.
  */
 public enum ShiftRule {
+    /**
+     * This powder should fall straight down and pile up, without slipping.
+     */
     STACK,
     /**
      * This powder should be static.
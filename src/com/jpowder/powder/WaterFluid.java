@@ -5,5 +5,7 @@ import com.jpowder.PowderUtilities;
 public class WaterFluid extends BaseFluid {
     public WaterFluid() {
         super(0, 0, PowderUtilities.rgbToColorInt(0,0,255));
+
+        dispersion = 8;
     }
 }